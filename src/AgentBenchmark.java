@@ -0,0 +1,335 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro benchmarks for the agent's per step work.  Every benchmark is run
+ * for each army size and injury rate, first to warm up the JIT and then
+ * measured, and one JSON object per result is printed so runs from two
+ * builds can be diffed line by line.
+ *
+ * Arguments: a comma separated list of army sizes, a comma separated list
+ * of injury rates, the number of operations per measurement, and optionally
+ * the number of episodes for the win rate of each assignment (default 0, off).  The agent's
+ * own console output is discarded so standard out only holds results.
+ * Before the benchmarks of each army size, the batched Q values are checked
+ * against the agent's one pair at a time Q function and any difference
+ * stops the run with an exception.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class AgentBenchmark {
+
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int MEASURED_ROUNDS = 5;
+
+	private final com.sun.management.ThreadMXBean threads;
+	private final PrintStream results;
+
+	public AgentBenchmark(PrintStream results) {
+		this.results = results;
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		threads = bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean)bean : null;
+	}
+
+	/**
+	 * A single benchmarked operation.
+	 */
+	private interface Operation {
+		public void run();
+	}
+
+	/**
+	 * A battle where nobody moves and nobody dies, each call to tick injures
+	 * one random unit with the given probability.  That controls how often
+	 * the agent takes the event path in middleStep.
+	 */
+	private static class SyntheticView implements CombatView {
+		private final List<List<Integer>> unitIds = new ArrayList<List<Integer>>();
+		private final int[] hp;
+		private final int[] x;
+		private final int[] y;
+		private final double injuryRate;
+		private final Random random = new Random(0);
+
+		SyntheticView(int unitsPerSide, double injuryRate) {
+			this.injuryRate = injuryRate;
+			int numUnits = unitsPerSide * 2;
+			hp = new int[numUnits];
+			x = new int[numUnits];
+			y = new int[numUnits];
+			int size = Math.max(16, unitsPerSide);
+			for(int player = 0; player < 2; player++) {
+				List<Integer> ids = new ArrayList<Integer>();
+				for(int i = 0; i < unitsPerSide; i++) {
+					int id = player * unitsPerSide + i;
+					ids.add(id);
+					hp[id] = CombatSimulator.FOOTMAN_HP;
+					x[id] = random.nextInt(size);
+					y[id] = random.nextInt(size);
+				}
+				unitIds.add(ids);
+			}
+		}
+
+		void tick() {
+			if(random.nextDouble() < injuryRate) {
+				int id = random.nextInt(hp.length);
+				hp[id] = hp[id] > 1 ? hp[id] - 1 : CombatSimulator.FOOTMAN_HP;
+			}
+		}
+
+		@Override
+		public List<Integer> getUnitIds(int player) {
+			return unitIds.get(player);
+		}
+
+		@Override
+		public boolean isAlive(int unitId) {
+			return unitId >= 0 && unitId < hp.length;
+		}
+
+		@Override
+		public int getHP(int unitId) {
+			return hp[unitId];
+		}
+
+		@Override
+		public int getXPosition(int unitId) {
+			return x[unitId];
+		}
+
+		@Override
+		public int getYPosition(int unitId) {
+			return y[unitId];
+		}
+	}
+
+	/**
+	 * measures one operation and prints the result as a JSON line
+	 */
+	private void measure(String name, int unitsPerSide, double injuryRate, int operations, Operation operation) {
+		for(int round = 0; round < WARMUP_ROUNDS; round++) {
+			for(int i = 0; i < operations; i++) {
+				operation.run();
+			}
+		}
+		long bestNanos = Long.MAX_VALUE;
+		long bytes = 0;
+		for(int round = 0; round < MEASURED_ROUNDS; round++) {
+			long startBytes = allocatedBytes();
+			long start = System.nanoTime();
+			for(int i = 0; i < operations; i++) {
+				operation.run();
+			}
+			long elapsed = System.nanoTime() - start;
+			bytes += allocatedBytes() - startBytes;
+			bestNanos = Math.min(bestNanos, elapsed);
+		}
+		double nsPerOp = (double)bestNanos / operations;
+		double bytesPerOp = threads == null ? -1 : (double)bytes / (MEASURED_ROUNDS * operations);
+		results.println("{\"benchmark\":\"" + name + "\",\"unitsPerSide\":" + unitsPerSide
+				+ ",\"injuryRate\":" + injuryRate + ",\"operations\":" + operations
+				+ ",\"nsPerOp\":" + nsPerOp + ",\"opsPerSecond\":" + (1e9 / nsPerOp)
+				+ ",\"bytesPerOp\":" + bytesPerOp + "}");
+	}
+
+	private long allocatedBytes() {
+		return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * decision latency of middleStep, including learning when an injury happened
+	 * @param name - the benchmark name printed with the result
+	 * @param settings - agent arguments on top of the defaults
+	 */
+	public void middleStep(int unitsPerSide, double injuryRate, int operations, String name, String... settings) {
+		final SyntheticView view = new SyntheticView(unitsPerSide, injuryRate);
+		String[] arguments = new String[settings.length + 2];
+		arguments[0] = "0";
+		arguments[1] = "seed=0";
+		System.arraycopy(settings, 0, arguments, 2, settings.length);
+		final RLAgent agent = new RLAgent(0, arguments, null, null, false);
+		agent.initialStep(view);
+		measure(name, unitsPerSide, injuryRate, operations, new Operation() {
+			@Override
+			public void run() {
+				view.tick();
+				agent.middleStep(view);
+			}
+		});
+	}
+
+	/**
+	 * target bookkeeping in PreviousState: retargeting every footman and
+	 * counting attackers on every enemy
+	 */
+	public void previousState(int unitsPerSide, double injuryRate, int operations) {
+		final PreviousState state = new PreviousState(unitsPerSide, unitsPerSide);
+		for(int i = 0; i < unitsPerSide; i++) {
+			state.addFootman(i, CombatSimulator.FOOTMAN_HP, 0, i, unitsPerSide);
+			state.addEnemy(unitsPerSide + i, CombatSimulator.FOOTMAN_HP, 1, i);
+		}
+		final int size = unitsPerSide;
+		measure("previousState", unitsPerSide, injuryRate, operations, new Operation() {
+			private int round;
+			@Override
+			public void run() {
+				round++;
+				int total = 0;
+				for(int i = 0; i < size; i++) {
+					state.setFootmanAttack(i, size + (i + round) % size);
+					state.setFootmanHP(i, state.getFootmanHP(i));
+				}
+				for(int i = 0; i < size; i++) {
+					total += state.getNumAttackers(size + i);
+				}
+				if(total != size) {
+					throw new IllegalStateException("Lost track of attackers");
+				}
+			}
+		});
+	}
+
+	/**
+	 * whole episodes against the headless simulator
+	 */
+	public void episodes(int unitsPerSide, double injuryRate, int operations) {
+		final int size = Math.max(16, unitsPerSide);
+		final CombatSimulator simulator = new CombatSimulator(size, size, unitsPerSide, 0);
+		final RLAgent agent = new RLAgent(0, new String[] {Integer.toString(Integer.MAX_VALUE - 1), "seed=0"},
+				null, null, false);
+		measure("episode", unitsPerSide, injuryRate, Math.max(1, operations / 1000), new Operation() {
+			@Override
+			public void run() {
+				simulator.runEpisode(agent);
+			}
+		});
+	}
+
+	/**
+	 * plays simulator battles and after every step compares each Q value the batch
+	 * evaluator used with the agent's one pair at a time Q function
+	 * @param name - the check name printed with the result
+	 * @param settings - agent arguments on top of the defaults
+	 * @throws IllegalStateException if a Q value differs
+	 */
+	public void checkBatch(int unitsPerSide, int episodes, String name, String... settings) {
+		int size = Math.max(16, unitsPerSide);
+		String[] arguments = new String[settings.length + 2];
+		arguments[0] = Integer.toString(Integer.MAX_VALUE - 1);
+		arguments[1] = "seed=0";
+		System.arraycopy(settings, 0, arguments, 2, settings.length);
+		RLAgent agent = new RLAgent(0, arguments, null, null, false);
+		CombatSimulator simulator = new CombatSimulator(size, size, unitsPerSide, 0);
+		long pairs = 0;
+		for(int i = 0; i < episodes; i++) {
+			simulator.reset();
+			simulator.issue(agent.initialStep(simulator));
+			while(true) {
+				simulator.step();
+				if(simulator.isTerminal()) {
+					break;
+				}
+				simulator.issue(agent.middleStep(simulator));
+				pairs += agent.checkBatch();
+			}
+			agent.terminalStep(simulator);
+		}
+		agent.close();
+		results.println("{\"benchmark\":\"" + name + "\",\"unitsPerSide\":" + unitsPerSide
+				+ ",\"episodes\":" + episodes + ",\"pairsChecked\":" + pairs + "}");
+	}
+
+	/**
+	 * trains weights with the greedy assignment, then plays the same battles
+	 * without learning or exploring under both assignments and prints how
+	 * often each one won
+	 */
+	public void winRate(int unitsPerSide, int episodes) {
+		int size = Math.max(16, unitsPerSide);
+		String forever = Integer.toString(Integer.MAX_VALUE - 1);
+		RLAgent trainer = new RLAgent(0, new String[] {forever, "seed=0", "cycle=1", "learnEpisodes=1"}, null, null, false);
+		CombatSimulator training = new CombatSimulator(size, size, unitsPerSide, 0);
+		for(int i = 0; i < episodes; i++) {
+			training.runEpisode(trainer);
+		}
+		WeightCheckpoint trained = trainer.checkpoint();
+
+		for(String assignment : new String[] {"greedy", "joint"}) {
+			RLAgent agent = new RLAgent(0, new String[] {forever, "seed=0", "cycle=" + episodes, "learnEpisodes=0",
+					"epsilon=0", "assignment=" + assignment}, null, null, false);
+			agent.restore(trained);
+			CombatSimulator simulator = new CombatSimulator(size, size, unitsPerSide, 1);
+			int wins = 0;
+			long start = System.nanoTime();
+			for(int i = 0; i < episodes; i++) {
+				simulator.runEpisode(agent);
+				if(simulator.friendlyWon()) {
+					wins++;
+				}
+			}
+			double nsPerEpisode = (double)(System.nanoTime() - start) / episodes;
+			results.println("{\"benchmark\":\"winRate\",\"assignment\":\"" + assignment
+					+ "\",\"unitsPerSide\":" + unitsPerSide + ",\"episodes\":" + episodes
+					+ ",\"winRate\":" + ((double)wins / episodes) + ",\"averageReward\":"
+					+ agent.getEvaluationReward() + ",\"nsPerEpisode\":" + nsPerEpisode + "}");
+		}
+	}
+
+	private static int[] parseInts(String list) {
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for(int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
+	private static double[] parseDoubles(String list) {
+		String[] parts = list.split(",");
+		double[] values = new double[parts.length];
+		for(int i = 0; i < parts.length; i++) {
+			values[i] = Double.parseDouble(parts[i].trim());
+		}
+		return values;
+	}
+
+	public static void main(String[] args) {
+		int[] sizes = parseInts(args.length > 0 ? args[0] : "5,50,500");
+		double[] injuryRates = parseDoubles(args.length > 1 ? args[1] : "0.0,0.1,1.0");
+		int operations = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int winRateEpisodes = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+		AgentBenchmark benchmark = new AgentBenchmark(System.out);
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		for(int size : sizes) {
+			//results are only worth printing if the batched Q values are right
+			benchmark.checkBatch(size, 1, "checkBatch");
+			benchmark.checkBatch(size, 1, "checkBatchNearest", "nearestTargets=4");
+			benchmark.checkBatch(size, 1, "checkBatchParallel", "parallelDecide=2");
+			benchmark.checkBatch(size, 1, "checkBatchJoint", "assignment=joint");
+			benchmark.checkBatch(size, 1, "checkBatchFrozen", "frozen=true");
+			benchmark.previousState(size, 0, operations);
+			for(double injuryRate : injuryRates) {
+				benchmark.middleStep(size, injuryRate, operations, "middleStep");
+				benchmark.middleStep(size, injuryRate, operations, "middleStepJoint", "assignment=joint");
+				benchmark.middleStep(size, injuryRate, operations, "middleStepEvaluation", "learnEpisodes=0");
+				benchmark.middleStep(size, injuryRate, operations, "middleStepFrozen", "frozen=true");
+			}
+			benchmark.episodes(size, 0, operations);
+			if(winRateEpisodes > 0) {
+				benchmark.winRate(size, winRateEpisodes);
+			}
+		}
+	}
+}
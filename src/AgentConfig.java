@@ -0,0 +1,435 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * The settings an RLAgent is started with.  The first agent argument is the
+ * number of episodes to play, every later argument is a key=value pair:
+ *
+ * <pre>
+ * config=FILE           read key=value pairs from a properties file, later arguments win
+ * discount=D            discounting factor (default 0.9)
+ * learningRate=A        learning rate of the first episode (default 0.0001)
+ * learningRateDecay=F   learning rate is multiplied by F every episode (default 1)
+ * minLearningRate=A     lower bound of the decayed learning rate (default 0)
+ * epsilon=E             exploration rate of the first episode (default 0.02)
+ * epsilonDecay=F        exploration rate is multiplied by F every episode (default 1)
+ * minEpsilon=E          lower bound of the decayed exploration rate (default 0)
+ * lambda=L              Watkins Q(lambda) trace decay, 0 for one step Q learning (default 0)
+ * standardize=B         step in standardized feature space, true or false (default false)
+ * normTolerance=T       only rescale the weights once their norm is off 1 by more than T (default 0)
+ * frozen=B              only play the starting weights, never learn or explore, true or false (default false)
+ * cycle=N               episodes per learn and evaluate cycle (default 10)
+ * learnEpisodes=N       episodes at the start of each cycle that learn (default 5)
+ * checkpoint=FILE       checkpoint to resume from and save to, not with shared weights
+ * checkpointEvery=N     episodes between checkpoint saves (default 1)
+ * trace=FILE            append every event step of every episode to a binary trace
+ * replay=N              transitions kept for experience replay (default 0, off)
+ * replayBatch=N         transitions replayed after every update (default 8)
+ * replayCandidates=N    next state targets kept per transition, also for asyncLearner (default 16)
+ * asyncLearner=N        learn on a background thread with a queue of N transitions (default 0, off)
+ * nearestTargets=K      only consider the K closest enemies per footman (default 0, all)
+ * parallelDecide=N      choose targets with N fork/join threads (default 0, sequential)
+ * stepBudget=US         microseconds per step before remaining footmen keep their targets (default 0, no limit)
+ * assignment=A          greedy, one footman at a time, or joint, all footmen at once (default greedy)
+ * assignCapacity=N      most footmen the joint assignment sends to one enemy (default 0, as few as fit)
+ * seed=N                seed for weight initialization and exploration (default random)
+ * parameterServer=PORT  learn into the weights of a ParameterServer on this machine, whose
+ *                       arguments come before the agent's own
+ * pushEvery=N           updates summed before they are pushed to the parameter server (default 32)
+ * metrics=FILE          append training metrics to FILE
+ * metricsFormat=F       json or csv (default json)
+ * metricsEvery=N        episodes between metrics lines (default 1)
+ * jmx=NAME              publish the metrics as an MBean under NAME
+ * features=CLASS        FeatureExtractor to use (default DefaultFeatures)
+ * </pre>
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class AgentConfig {
+
+	private int targetEpisodes = 200;
+	//we found 0.7 and 0.01 work better for discount and epsilon
+	private double discount = 0.9;
+	private double learningRate = 0.0001;
+	private double learningRateDecay = 1;
+	private double minLearningRate = 0;
+	private double epsilon = 0.02;
+	private double epsilonDecay = 1;
+	private double minEpsilon = 0;
+	private double lambda = 0;
+	private boolean standardize = false;
+	private double normTolerance = 0;
+	private boolean frozen = false;
+	private int cycle = 10;
+	private int learnEpisodes = 5;
+	private File checkpointFile;
+	private int checkpointInterval = 1;
+	private File traceFile;
+	private int replayCapacity = 0;
+	private int replayBatchSize = 8;
+	private int replayCandidates = 16;
+	private int asyncCapacity = 0;
+	private int nearestTargets = 0;
+	private int decideThreads = 0;
+	private long stepBudget = 0;
+	private boolean jointAssignment = false;
+	private int assignCapacity = 0;
+	private Long seed;
+	private int parameterServer = 0;
+	private int pushEvery = 32;
+	private String metricsFile;
+	private boolean metricsJson = true;
+	private int metricsInterval = 1;
+	private String jmxName;
+	private String featuresClass = DefaultFeatures.class.getName();
+
+	public static AgentConfig parse(String[] arguments) {
+		AgentConfig config = new AgentConfig();
+		if(arguments.length > 0 && Integer.parseInt(arguments[0]) > 0) {
+			config.targetEpisodes = Integer.parseInt(arguments[0]);
+		}
+		for(int i = 1; i < arguments.length; i++) {
+			int split = arguments[i].indexOf('=');
+			if(split < 0) {
+				throw new IllegalArgumentException("Expected key=value but got " + arguments[i]);
+			}
+			config.set(arguments[i].substring(0, split).trim(), arguments[i].substring(split + 1).trim());
+		}
+		if(config.learnEpisodes > config.cycle) {
+			throw new IllegalArgumentException("learnEpisodes can't be more than cycle");
+		}
+		if(config.replayCapacity > 0 || config.asyncCapacity > 0) {
+			//throws if the replay buffer or the learner's queue would not fit in one direct buffer
+			int numFeatures = config.createFeatures().getNumFeatures();
+			ReplayBuffer.bytes(Math.max(config.replayCapacity, config.asyncCapacity), numFeatures, config.replayCandidates);
+		}
+		return config;
+	}
+
+	private void load(String file) {
+		Properties properties = new Properties();
+		try(InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		} catch(IOException e) {
+			throw new IllegalArgumentException("Could not read config " + file, e);
+		}
+		for(String key : properties.stringPropertyNames()) {
+			set(key.trim(), properties.getProperty(key).trim());
+		}
+	}
+
+	private void set(String key, String value) {
+		if(key.equals("config")) {
+			load(value);
+		} else if(key.equals("discount")) {
+			discount = Double.parseDouble(value);
+		} else if(key.equals("learningRate")) {
+			learningRate = Double.parseDouble(value);
+		} else if(key.equals("learningRateDecay")) {
+			learningRateDecay = Double.parseDouble(value);
+		} else if(key.equals("minLearningRate")) {
+			minLearningRate = Double.parseDouble(value);
+		} else if(key.equals("epsilon")) {
+			epsilon = Double.parseDouble(value);
+		} else if(key.equals("epsilonDecay")) {
+			epsilonDecay = Double.parseDouble(value);
+		} else if(key.equals("minEpsilon")) {
+			minEpsilon = Double.parseDouble(value);
+		} else if(key.equals("lambda")) {
+			lambda = Double.parseDouble(value);
+			if(lambda < 0 || lambda > 1) {
+				throw new IllegalArgumentException("lambda must be between 0 and 1");
+			}
+		} else if(key.equals("standardize")) {
+			standardize = Boolean.parseBoolean(value);
+		} else if(key.equals("frozen")) {
+			frozen = Boolean.parseBoolean(value);
+		} else if(key.equals("normTolerance")) {
+			normTolerance = Math.max(0, Double.parseDouble(value));
+		} else if(key.equals("cycle")) {
+			cycle = Math.max(1, Integer.parseInt(value));
+		} else if(key.equals("learnEpisodes")) {
+			learnEpisodes = Math.max(0, Integer.parseInt(value));
+		} else if(key.equals("checkpoint")) {
+			checkpointFile = new File(value);
+		} else if(key.equals("trace")) {
+			traceFile = new File(value);
+		} else if(key.equals("checkpointEvery")) {
+			checkpointInterval = Math.max(1, Integer.parseInt(value));
+		} else if(key.equals("replay")) {
+			replayCapacity = Math.max(0, Integer.parseInt(value));
+		} else if(key.equals("replayBatch")) {
+			replayBatchSize = Math.max(0, Integer.parseInt(value));
+		} else if(key.equals("replayCandidates")) {
+			replayCandidates = Math.max(1, Integer.parseInt(value));
+		} else if(key.equals("asyncLearner")) {
+			asyncCapacity = Math.max(0, Integer.parseInt(value));
+		} else if(key.equals("nearestTargets")) {
+			nearestTargets = Math.max(0, Integer.parseInt(value));
+		} else if(key.equals("parallelDecide")) {
+			decideThreads = Math.max(0, Integer.parseInt(value));
+		} else if(key.equals("stepBudget")) {
+			stepBudget = Math.max(0, Long.parseLong(value));
+		} else if(key.equals("assignment")) {
+			if(!value.equals("greedy") && !value.equals("joint")) {
+				throw new IllegalArgumentException("assignment must be greedy or joint");
+			}
+			jointAssignment = value.equals("joint");
+		} else if(key.equals("assignCapacity")) {
+			assignCapacity = Math.max(0, Integer.parseInt(value));
+		} else if(key.equals("seed")) {
+			seed = Long.parseLong(value);
+		} else if(key.equals("parameterServer")) {
+			parameterServer = Integer.parseInt(value);
+		} else if(key.equals("pushEvery")) {
+			pushEvery = Math.max(1, Integer.parseInt(value));
+		} else if(key.equals("metrics")) {
+			metricsFile = value;
+		} else if(key.equals("metricsFormat")) {
+			if(!value.equals("json") && !value.equals("csv")) {
+				throw new IllegalArgumentException("metricsFormat must be json or csv");
+			}
+			metricsJson = value.equals("json");
+		} else if(key.equals("metricsEvery")) {
+			metricsInterval = Math.max(1, Integer.parseInt(value));
+		} else if(key.equals("jmx")) {
+			jmxName = value;
+		} else if(key.equals("features")) {
+			featuresClass = value;
+		} else {
+			throw new IllegalArgumentException("Unknown agent argument " + key);
+		}
+	}
+
+	public int getTargetEpisodes() {
+		return targetEpisodes;
+	}
+
+	public double getDiscount() {
+		return discount;
+	}
+
+	/**
+	 * 
+	 * @param episode - number of episodes played so far
+	 * @return the learning rate for that episode
+	 */
+	public double getLearningRate(int episode) {
+		return Math.max(minLearningRate, learningRate * Math.pow(learningRateDecay, episode));
+	}
+
+	/**
+	 * 
+	 * @param episode - number of episodes played so far
+	 * @return the exploration rate for that episode
+	 */
+	public double getEpsilon(int episode) {
+		return Math.max(minEpsilon, epsilon * Math.pow(epsilonDecay, episode));
+	}
+
+	/**
+	 * 
+	 * @return true if updates should be taken in standardized feature space
+	 */
+	public boolean getStandardize() {
+		return standardize;
+	}
+
+	/**
+	 * 
+	 * @return true if the agent plays its starting weights without learning
+	 */
+	public boolean getFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * 
+	 * @return how fast eligibility traces decay on top of the discount, 0 to learn without traces
+	 */
+	public double getLambda() {
+		return lambda;
+	}
+
+	/**
+	 * 
+	 * @return how far the weight norm may drift from 1 before the weights are rescaled
+	 */
+	public double getNormTolerance() {
+		return normTolerance;
+	}
+
+	public int getCycle() {
+		return cycle;
+	}
+
+	/**
+	 * 
+	 * @return how many episodes at the start of each cycle learn, the rest are evaluated
+	 */
+	public int getLearnEpisodes() {
+		return learnEpisodes;
+	}
+
+	/**
+	 * 
+	 * @return the checkpoint file, or null if checkpointing is off
+	 */
+	public File getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * 
+	 * @return the episode trace to record to, or null if tracing is off
+	 */
+	public File getTraceFile() {
+		return traceFile;
+	}
+
+	/**
+	 * 
+	 * @return the number of transitions kept for replay, 0 if replay is off
+	 */
+	public int getReplayCapacity() {
+		return replayCapacity;
+	}
+
+	public int getReplayBatchSize() {
+		return replayBatchSize;
+	}
+
+	public int getReplayCandidates() {
+		return replayCandidates;
+	}
+
+	/**
+	 * 
+	 * @return the number of transitions queued for the background learner, 0 to learn in the agent's thread
+	 */
+	public int getAsyncCapacity() {
+		return asyncCapacity;
+	}
+
+	/**
+	 * 
+	 * @return how many of the closest enemies each footman considers, 0 for all of them
+	 */
+	public int getNearestTargets() {
+		return nearestTargets;
+	}
+
+	/**
+	 * 
+	 * @return the number of threads targets are chosen with, 0 to choose them sequentially
+	 */
+	public int getDecideThreads() {
+		return decideThreads;
+	}
+
+	/**
+	 * 
+	 * @return the microseconds a step may take before the remaining footmen keep their targets, 0 for no limit
+	 */
+	public long getStepBudget() {
+		return stepBudget;
+	}
+
+	/**
+	 * 
+	 * @return true if targets are assigned jointly with a TargetAssigner
+	 */
+	public boolean getJointAssignment() {
+		return jointAssignment;
+	}
+
+	/**
+	 * 
+	 * @return the most footmen the joint assignment sends to one enemy, 0 for as few as fit
+	 */
+	public int getAssignCapacity() {
+		return assignCapacity;
+	}
+
+	/**
+	 * 
+	 * @return the port of the parameter server to learn with, 0 to learn without one
+	 */
+	public int getParameterServer() {
+		return parameterServer;
+	}
+
+	/**
+	 * 
+	 * @return the number of updates summed before they are pushed to the parameter server
+	 */
+	public int getPushEvery() {
+		return pushEvery;
+	}
+
+	/**
+	 * 
+	 * @return a random source seeded with the seed argument, or randomly if there was none
+	 */
+	public SplittableRandom createRandom() {
+		return seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+	}
+
+	/**
+	 * 
+	 * @return the metrics for an agent started with this config
+	 */
+	public AgentMetrics createMetrics() {
+		if(metricsFile == null && jmxName == null) {
+			return AgentMetrics.disabled();
+		}
+		AgentMetrics metrics = new AgentMetrics(true, metricsFile, metricsJson, metricsInterval);
+		if(jmxName != null) {
+			metrics.registerMBean(jmxName);
+		}
+		return metrics;
+	}
+
+	/**
+	 * gives one of several agents started from the same arguments a metrics file and MBean
+	 * name of its own, with the worker number appended, so their metrics don't mix
+	 * @param arguments - agent arguments, the first is the number of episodes
+	 * @param worker - number of the worker
+	 * @return the arguments for that worker
+	 */
+	public static String[] forWorker(String[] arguments, int worker) {
+		if(arguments.length == 0) {
+			//the first argument is the episode count, a suffix must not take its place
+			arguments = new String[] {"0"};
+		}
+		AgentConfig config = parse(arguments);
+		String[] own = Arrays.copyOf(arguments, arguments.length + 2);
+		int length = arguments.length;
+		if(config.metricsFile != null) {
+			own[length++] = "metrics=" + config.metricsFile + "." + worker;
+		}
+		if(config.jmxName != null) {
+			own[length++] = "jmx=" + config.jmxName + "-" + worker;
+		}
+		return Arrays.copyOf(own, length);
+	}
+
+	/**
+	 * 
+	 * @return a new instance of the configured feature extractor
+	 */
+	public FeatureExtractor createFeatures() {
+		return FeatureExtractor.create(featuresClass);
+	}
+}
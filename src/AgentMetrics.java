@@ -0,0 +1,304 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+/**
+ * Counters, gauges and a decision latency histogram for one agent.  When
+ * the metrics are disabled every recording method returns straight away
+ * and no clock is read, so they can stay in production runs.
+ *
+ * Every exportInterval episodes one line is written to the metrics file,
+ * either as JSON or as CSV, and the same values can be read over JMX.  The
+ * agent's thread is the only writer, except for the Q update count and the
+ * weight norm, which a background learner thread records when the agent
+ * learns asynchronously; those two are safe to write from another thread.
+ * Readers on other threads may see values that are a step old.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class AgentMetrics implements AgentMetricsMXBean {
+	private static final Logger logger = Logger.getLogger(AgentMetrics.class.getCanonicalName());
+
+	private static final String CSV_HEADER = "episodes,steps,eventSteps,skippedSteps,qUpdates,qUpdatesPerSecond,"
+			+ "explorationRate,weightNorm,lastEpisodeReward,meanDecisionNanos,p99DecisionNanos,maxDecisionNanos,"
+			+ "replanned,carriedOver,lastReplanned,lastCarriedOver";
+
+	private final boolean enabled;
+	private final boolean json;
+	private final int exportInterval;
+	private PrintWriter out;
+
+	private long episodes;
+	private long steps;
+	private long eventSteps;
+	private long skippedSteps;
+	private final LongAdder qUpdates = new LongAdder();
+	private long decisions;
+	private long explorations;
+	private long replanned;
+	private long carriedOver;
+	private int lastReplanned;
+	private int lastCarriedOver;
+	private volatile double weightNorm;
+	private double lastEpisodeReward;
+	private final LatencyHistogram decisionNanos = new LatencyHistogram();
+
+	private final long startNanos = System.nanoTime();
+
+	/**
+	 * 
+	 * @return metrics that record nothing
+	 */
+	public static AgentMetrics disabled() {
+		return new AgentMetrics(false, null, false, 1);
+	}
+
+	/**
+	 * 
+	 * @param enabled - false to turn every recording method into a no-op
+	 * @param file - file to append exported lines to, or null to only keep the values
+	 * @param json - true for JSON lines, false for CSV
+	 * @param exportInterval - episodes between exported lines
+	 */
+	public AgentMetrics(boolean enabled, String file, boolean json, int exportInterval) {
+		this.enabled = enabled;
+		this.json = json;
+		this.exportInterval = Math.max(1, exportInterval);
+		if(enabled && file != null) {
+			//a file being appended to already has its header
+			boolean empty = new File(file).length() == 0;
+			try {
+				out = new PrintWriter(new FileWriter(file, true));
+			} catch(IOException e) {
+				throw new IllegalStateException("Could not open metrics file " + file, e);
+			}
+			if(!json && empty) {
+				out.println(CSV_HEADER);
+				out.flush();
+			}
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * publishes these metrics as an MXBean
+	 * @param name - distinguishes agents in the same JVM
+	 */
+	public void registerMBean(String name) {
+		if(!enabled) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("RLAgent:type=AgentMetrics,name=" + ObjectName.quote(name)));
+		} catch(Exception e) {
+			logger.log(Level.WARNING, "Could not register metrics MBean " + name, e);
+		}
+	}
+
+	/**
+	 * 
+	 * @return the time a step started, 0 when disabled
+	 */
+	public long startStep() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * records how long a step took and whether it had an event
+	 * @param start - the value returned by startStep
+	 * @param event - true if the step learned and re-planned
+	 */
+	public void endStep(long start, boolean event) {
+		if(!enabled) {
+			return;
+		}
+		decisionNanos.record(System.nanoTime() - start);
+		steps++;
+		if(event) {
+			eventSteps++;
+		} else {
+			skippedSteps++;
+		}
+	}
+
+	public void qUpdate() {
+		if(enabled) {
+			qUpdates.increment();
+		}
+	}
+
+	public void decision(boolean explored) {
+		if(!enabled) {
+			return;
+		}
+		decisions++;
+		if(explored) {
+			explorations++;
+		}
+	}
+
+	/**
+	 * records how many footmen of an event step chose a target and how many kept
+	 * their last one because the step ran out of time
+	 */
+	public void planned(int replanned, int carriedOver) {
+		if(!enabled) {
+			return;
+		}
+		this.replanned += replanned;
+		this.carriedOver += carriedOver;
+		lastReplanned = replanned;
+		lastCarriedOver = carriedOver;
+	}
+
+	/**
+	 * records the norm of the weights after a learning update, before they are rescaled
+	 */
+	public void weightNorm(double norm) {
+		if(enabled) {
+			weightNorm = norm;
+		}
+	}
+
+	/**
+	 * records the end of an episode and exports a line when one is due
+	 * @param reward - the cumulative reward of the episode
+	 */
+	public void episode(double reward) {
+		if(!enabled) {
+			return;
+		}
+		episodes++;
+		lastEpisodeReward = reward;
+		if(out != null && episodes % exportInterval == 0) {
+			out.println(json ? toJson() : toCsv());
+			out.flush();
+		}
+	}
+
+	public String toJson() {
+		return "{\"episodes\":" + episodes + ",\"steps\":" + steps + ",\"eventSteps\":" + eventSteps
+				+ ",\"skippedSteps\":" + skippedSteps + ",\"qUpdates\":" + qUpdates.sum()
+				+ ",\"qUpdatesPerSecond\":" + number(getQUpdatesPerSecond()) + ",\"explorationRate\":" + number(getExplorationRate())
+				+ ",\"weightNorm\":" + number(weightNorm) + ",\"lastEpisodeReward\":" + number(lastEpisodeReward)
+				+ ",\"meanDecisionNanos\":" + number(getMeanDecisionNanos()) + ",\"p99DecisionNanos\":" + getP99DecisionNanos()
+				+ ",\"maxDecisionNanos\":" + getMaxDecisionNanos() + ",\"replanned\":" + replanned
+				+ ",\"carriedOver\":" + carriedOver + ",\"lastReplanned\":" + lastReplanned
+				+ ",\"lastCarriedOver\":" + lastCarriedOver + "}";
+	}
+
+	/**
+	 * JSON has no NaN or infinity, a diverged weight norm is written as null
+	 */
+	private static String number(double value) {
+		return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+	}
+
+	public String toCsv() {
+		return episodes + "," + steps + "," + eventSteps + "," + skippedSteps + "," + qUpdates.sum() + ","
+				+ getQUpdatesPerSecond() + "," + getExplorationRate() + "," + weightNorm + ","
+				+ lastEpisodeReward + "," + getMeanDecisionNanos() + "," + getP99DecisionNanos() + ","
+				+ getMaxDecisionNanos() + "," + replanned + "," + carriedOver + "," + lastReplanned + ","
+				+ lastCarriedOver;
+	}
+
+	public void close() {
+		if(out != null) {
+			out.close();
+		}
+	}
+
+	@Override
+	public long getEpisodes() {
+		return episodes;
+	}
+
+	@Override
+	public long getSteps() {
+		return steps;
+	}
+
+	@Override
+	public long getEventSteps() {
+		return eventSteps;
+	}
+
+	@Override
+	public long getSkippedSteps() {
+		return skippedSteps;
+	}
+
+	@Override
+	public long getQUpdates() {
+		return qUpdates.sum();
+	}
+
+	@Override
+	public double getQUpdatesPerSecond() {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return seconds > 0 ? qUpdates.sum() / seconds : 0;
+	}
+
+	@Override
+	public double getExplorationRate() {
+		return decisions == 0 ? 0 : (double)explorations / decisions;
+	}
+
+	@Override
+	public double getWeightNorm() {
+		return weightNorm;
+	}
+
+	@Override
+	public double getLastEpisodeReward() {
+		return lastEpisodeReward;
+	}
+
+	@Override
+	public double getMeanDecisionNanos() {
+		return decisionNanos.getMean();
+	}
+
+	@Override
+	public long getP99DecisionNanos() {
+		return decisionNanos.getPercentile(0.99);
+	}
+
+	@Override
+	public long getMaxDecisionNanos() {
+		return decisionNanos.getMax();
+	}
+
+	@Override
+	public long getReplanned() {
+		return replanned;
+	}
+
+	@Override
+	public long getCarriedOver() {
+		return carriedOver;
+	}
+
+	@Override
+	public int getLastReplanned() {
+		return lastReplanned;
+	}
+
+	@Override
+	public int getLastCarriedOver() {
+		return lastCarriedOver;
+	}
+}
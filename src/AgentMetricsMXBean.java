@@ -0,0 +1,45 @@
+/**
+ * The agent's training metrics as seen through JMX.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public interface AgentMetricsMXBean {
+
+	public long getEpisodes();
+
+	public long getSteps();
+
+	public long getEventSteps();
+
+	public long getSkippedSteps();
+
+	public long getQUpdates();
+
+	public double getQUpdatesPerSecond();
+
+	public double getExplorationRate();
+
+	/**
+	 * 
+	 * @return the norm of the weights after the last learning update, before they were rescaled
+	 */
+	public double getWeightNorm();
+
+	public double getLastEpisodeReward();
+
+	public double getMeanDecisionNanos();
+
+	public long getP99DecisionNanos();
+
+	public long getMaxDecisionNanos();
+
+	public long getReplanned();
+
+	public long getCarriedOver();
+
+	public int getLastReplanned();
+
+	public int getLastCarriedOver();
+}
@@ -0,0 +1,178 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies Q updates on a background thread so the agent only has to
+ * evaluate the Q function when it picks targets.  The agent offers
+ * transitions to a TransitionQueue, the learner drains it into its own
+ * weight vector and, after each drained batch, publishes the weights
+ * through three reused buffers.  The agent holds the front one, the learner
+ * fills the back one and the two trade through the middle one, so the
+ * learner never writes an array the agent is reading and nothing is
+ * allocated per batch.
+ *
+ * Every reset starts a new generation.  Each publication is stamped with
+ * the generation of the last reset the learner applied, and the agent
+ * ignores publications from older ones, so weights learned before a reset
+ * can never replace it.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class AsyncLearner implements Runnable {
+
+	/**
+	 * One Q update, applied to the learner's weights.
+	 */
+	public interface Update {
+		public void apply(double[] weights, double reward, double[] previous, double[] candidates, int numCandidates);
+	}
+
+	private static final long IDLE_NANOS = 100000;
+	private static final int FRESH = 4;
+	private static final int INDEX = 3;
+	private static final int GENERATION_SHIFT = 3;
+	private static final int GENERATION_MASK = -1 >>> GENERATION_SHIFT;
+
+	/**
+	 * weights to restart from, with the generation they start and the queue
+	 * position before which transitions were learned from the old weights
+	 */
+	private static class Reset {
+		private final double[] weights;
+		private final int generation;
+		private final long queuePosition;
+
+		Reset(double[] weights, int generation, long queuePosition) {
+			this.weights = weights;
+			this.generation = generation;
+			this.queuePosition = queuePosition;
+		}
+	}
+
+	private final TransitionQueue queue;
+	private final Update update;
+	private final double[] weights;
+	private final double[] previous;
+	private final double[] candidates;
+	private final double[][] buffers = new double[3][];
+	//index of the middle buffer, with FRESH set while it holds weights the agent has not taken
+	//and the generation they were learned in above GENERATION_SHIFT
+	private final AtomicInteger middle = new AtomicInteger(1);
+	private int front = 0;
+	private int back = 2;
+	//the agent's generation, only used by the agent's thread
+	private int generation;
+	//the generation of the weights being learned, only used by the learner
+	private int learnerGeneration;
+	private final AtomicReference<Reset> pendingReset = new AtomicReference<Reset>();
+	private volatile boolean running = true;
+	private Thread thread;
+
+	/**
+	 * 
+	 * @param queue - the transitions to learn from
+	 * @param update - the Q update applied for each transition
+	 * @param initialWeights - the weights to start from, copied
+	 * @param maxCandidates - the most candidates a transition can hold
+	 */
+	public AsyncLearner(TransitionQueue queue, Update update, double[] initialWeights, int maxCandidates) {
+		this.queue = queue;
+		this.update = update;
+		weights = initialWeights.clone();
+		previous = new double[weights.length];
+		candidates = new double[maxCandidates * weights.length];
+		for(int i = 0; i < buffers.length; i++) {
+			buffers[i] = weights.clone();
+		}
+	}
+
+	public void start() {
+		if(thread == null) {
+			thread = new Thread(this, "RLAgent learner");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	@Override
+	public void run() {
+		while(running) {
+			Reset reset = pendingReset.getAndSet(null);
+			if(reset != null) {
+				System.arraycopy(reset.weights, 0, weights, 0, weights.length);
+				learnerGeneration = reset.generation;
+				queue.removeTo(reset.queuePosition);
+				publish();
+			}
+			if(queue.isEmpty()) {
+				LockSupport.parkNanos(IDLE_NANOS);
+				continue;
+			}
+			while(!queue.isEmpty()) {
+				int numCandidates = queue.peek(previous, candidates);
+				double reward = queue.peekReward();
+				queue.remove();
+				update.apply(weights, reward, previous, candidates, numCandidates);
+			}
+			publish();
+		}
+	}
+
+	/**
+	 * copies the weights into the back buffer and swaps it into the middle, only called by the learner
+	 */
+	private void publish() {
+		System.arraycopy(weights, 0, buffers[back], 0, weights.length);
+		back = middle.getAndSet(learnerGeneration << GENERATION_SHIFT | FRESH | back) & INDEX;
+	}
+
+	/**
+	 * takes the most recently published weights unless they were learned
+	 * before the last reset, only called by the agent's thread
+	 * @return the weights, not modified until the next call
+	 */
+	public double[] getWeights() {
+		int current = middle.get();
+		while((current & FRESH) != 0 && current >>> GENERATION_SHIFT == generation) {
+			if(middle.compareAndSet(current, front)) {
+				front = current & INDEX;
+				break;
+			}
+			current = middle.get();
+		}
+		return buffers[front];
+	}
+
+	/**
+	 * replaces the learner's weights, for example when a checkpoint is restored,
+	 * and drops the transitions still queued, only called by the agent's thread
+	 */
+	public void reset(double[] newWeights) {
+		System.arraycopy(newWeights, 0, buffers[front], 0, weights.length);
+		generation = (generation + 1) & GENERATION_MASK;
+		if(thread == null) {
+			System.arraycopy(newWeights, 0, weights, 0, weights.length);
+			learnerGeneration = generation;
+			queue.removeTo(queue.getHead());
+		} else {
+			pendingReset.set(new Reset(newWeights.clone(), generation, queue.getHead()));
+		}
+	}
+
+	/**
+	 * stops the learner thread, waiting for it to finish its current batch
+	 */
+	public void close() {
+		running = false;
+		if(thread != null) {
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the number of footmen assigned to each enemy, indexed directly by
+ * the enemy's unit id.  Counts are updated incrementally as targets are
+ * assigned, changed or dropped, so looking one up never scans the footmen.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class AttackerIndex {
+
+	private int[] counts;
+
+	public AttackerIndex() {
+		this(16);
+	}
+
+	public AttackerIndex(int maxEnemyId) {
+		counts = new int[Math.max(maxEnemyId + 1, 1)];
+	}
+
+	/**
+	 * 
+	 * @param enemyId - id of the enemy being attacked
+	 * @return the number of footmen attacking enemyId
+	 */
+	public int get(int enemyId) {
+		if(enemyId < 0 || enemyId >= counts.length) {
+			return 0;
+		}
+		return counts[enemyId];
+	}
+
+	public void add(int enemyId) {
+		if(enemyId < 0) {
+			return;
+		}
+		if(enemyId >= counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(enemyId + 1, counts.length * 2));
+		}
+		counts[enemyId]++;
+	}
+
+	public void remove(int enemyId) {
+		if(enemyId >= 0 && enemyId < counts.length && counts[enemyId] > 0) {
+			counts[enemyId]--;
+		}
+	}
+
+	/**
+	 * moves one attacker from oldEnemyId to newEnemyId
+	 */
+	public void move(int oldEnemyId, int newEnemyId) {
+		if(oldEnemyId != newEnemyId) {
+			remove(oldEnemyId);
+			add(newEnemyId);
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(counts, 0);
+	}
+}
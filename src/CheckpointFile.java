@@ -0,0 +1,63 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps the latest checkpoint in a file that is never left half written.
+ * Every save goes to a temporary file next to the checkpoint, which is
+ * forced to disk and then renamed over it, so after a crash, or to a
+ * reader in another process, the file holds either the old or the new
+ * checkpoint.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class CheckpointFile {
+
+	private final File file;
+	private final File temporary;
+	private final int numFeatures;
+	private final ByteBuffer buffer;
+
+	public CheckpointFile(File file, int numFeatures) {
+		this.file = file;
+		this.numFeatures = numFeatures;
+		temporary = new File(file.getPath() + ".tmp");
+		buffer = ByteBuffer.allocate(WeightCheckpoint.size(numFeatures));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * 
+	 * @return the checkpoint in the file, or null if nothing has been saved to it yet
+	 * @throws IOException if the file holds something else, or a different number of features
+	 */
+	public WeightCheckpoint load() throws IOException {
+		if(!file.exists() || file.length() == 0) {
+			return null;
+		}
+		return WeightCheckpoint.read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), numFeatures);
+	}
+
+	public void save(WeightCheckpoint checkpoint) throws IOException {
+		buffer.clear();
+		checkpoint.write(buffer);
+		buffer.flip();
+		try(FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
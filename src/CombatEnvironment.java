@@ -0,0 +1,17 @@
+/**
+ * Something that can play a whole combat episode with an RLAgent in control
+ * of the friendly footmen.  Each instance is used by one thread at a time.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public interface CombatEnvironment {
+
+	/**
+	 * plays one episode from start to finish, calling the agent's
+	 * initial, middle and terminal steps
+	 * @param agent - the agent controlling player 0
+	 */
+	public void runEpisode(RLAgent agent);
+}
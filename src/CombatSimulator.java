@@ -0,0 +1,287 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.action.ActionType;
+import edu.cwru.sepia.action.TargetedAction;
+
+/**
+ * A small, headless stand-in for SEPIA's footman versus footman combat.
+ * Player 0 is driven by an RLAgent, player 1 by a simple built in policy
+ * that attacks the closest footman.  Compound attacks are resolved the way
+ * SEPIA does it: step towards the target until adjacent, then attack.
+ *
+ * Every random choice comes from one java.util.Random created from the seed,
+ * so the same seed always plays out the same sequence of episodes.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class CombatSimulator implements CombatView, CombatEnvironment {
+
+	public static final int FOOTMAN_HP = 160;
+	public static final int FOOTMAN_DAMAGE = 6;
+	public static final int FOOTMAN_ARMOR = 2;
+	public static final int MAX_STEPS = 2000;
+
+	private static final int EMPTY = -1;
+
+	private final int width;
+	private final int height;
+	private final int unitsPerSide;
+	private final Random random;
+
+	private final int[] owner;
+	private final int[] hp;
+	private final int[] x;
+	private final int[] y;
+	private final int[] target;
+	private final boolean[] alive;
+	private final int[] cells;
+	private final List<List<Integer>> unitIds = new ArrayList<List<Integer>>();
+
+	private int step;
+
+	/**
+	 *
+	 * @param width - width of the map
+	 * @param height - height of the map, each army lines up in columns of this height
+	 * @param unitsPerSide - number of footmen each player starts with
+	 * @param seed - seed for unit placement, damage rolls and tie breaking
+	 */
+	public CombatSimulator(int width, int height, int unitsPerSide, long seed) {
+		int columns = (unitsPerSide + height - 1) / height;
+		if(unitsPerSide < 1 || 2 * columns + 2 > width) {
+			throw new IllegalArgumentException("A " + width + "x" + height + " map can't hold "
+					+ unitsPerSide + " footmen per side");
+		}
+		this.width = width;
+		this.height = height;
+		this.unitsPerSide = unitsPerSide;
+		random = new Random(seed);
+
+		int numUnits = unitsPerSide * 2;
+		owner = new int[numUnits];
+		hp = new int[numUnits];
+		x = new int[numUnits];
+		y = new int[numUnits];
+		target = new int[numUnits];
+		alive = new boolean[numUnits];
+		cells = new int[width * height];
+		unitIds.add(new ArrayList<Integer>(unitsPerSide));
+		unitIds.add(new ArrayList<Integer>(unitsPerSide));
+	}
+
+	/**
+	 * puts both armies back in starting formation at full health
+	 */
+	public void reset() {
+		step = 0;
+		Arrays.fill(cells, EMPTY);
+		for(int player = 0; player < 2; player++) {
+			unitIds.get(player).clear();
+			int[] rows = shuffledRows();
+			for(int i = 0; i < unitsPerSide; i++) {
+				int id = player * unitsPerSide + i;
+				int column = i / height;
+				int row = rows[i % height];
+				owner[id] = player;
+				hp[id] = FOOTMAN_HP;
+				x[id] = player == 0 ? 1 + column : width - 2 - column;
+				y[id] = row;
+				target[id] = EMPTY;
+				alive[id] = true;
+				cells[cell(x[id], y[id])] = id;
+				unitIds.get(player).add(id);
+			}
+		}
+	}
+
+	private int[] shuffledRows() {
+		int[] rows = new int[height];
+		for(int i = 0; i < height; i++) {
+			rows[i] = i;
+		}
+		for(int i = height - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = rows[i];
+			rows[i] = rows[j];
+			rows[j] = swap;
+		}
+		return rows;
+	}
+
+	@Override
+	public void runEpisode(RLAgent agent) {
+		reset();
+		issue(agent.initialStep(this));
+		while(!isTerminal()) {
+			step();
+			if(isTerminal()) {
+				break;
+			}
+			issue(agent.middleStep(this));
+		}
+		agent.terminalStep(this);
+	}
+
+	/**
+	 * hands the player 0 orders to their units, units keep their last order
+	 * until its target dies
+	 * @param actions - the actions returned by the agent
+	 */
+	public void issue(Map<Integer, Action> actions) {
+		for(Action action : actions.values()) {
+			int id = action.getUnitId();
+			if(action.getType() == ActionType.COMPOUNDATTACK && action instanceof TargetedAction
+					&& isAlive(id) && owner[id] == 0) {
+				target[id] = ((TargetedAction)action).getTargetId();
+			}
+		}
+	}
+
+	/**
+	 * advances the battle by one step, every living unit moves or attacks once
+	 */
+	public void step() {
+		step++;
+		for(int id = unitsPerSide; id < owner.length; id++) {
+			if(alive[id] && !isAlive(target[id])) {
+				target[id] = closestEnemy(id);
+			}
+		}
+		for(int id = 0; id < owner.length; id++) {
+			if(!alive[id] || !isAlive(target[id])) {
+				continue;
+			}
+			int foe = target[id];
+			if(Math.max(Math.abs(x[id] - x[foe]), Math.abs(y[id] - y[foe])) <= 1) {
+				attack(foe);
+			} else {
+				moveTowards(id, x[foe], y[foe]);
+			}
+		}
+	}
+
+	private void attack(int foe) {
+		int damage = Math.max(1, FOOTMAN_DAMAGE - FOOTMAN_ARMOR + random.nextInt(3) - 1);
+		hp[foe] -= damage;
+		if(hp[foe] <= 0) {
+			hp[foe] = 0;
+			alive[foe] = false;
+			cells[cell(x[foe], y[foe])] = EMPTY;
+			unitIds.get(owner[foe]).remove(Integer.valueOf(foe));
+		}
+	}
+
+	private void moveTowards(int id, int goalX, int goalY) {
+		int dx = Integer.signum(goalX - x[id]);
+		int dy = Integer.signum(goalY - y[id]);
+		if(!tryMove(id, dx, dy) && !tryMove(id, dx, 0)) {
+			tryMove(id, 0, dy);
+		}
+	}
+
+	private boolean tryMove(int id, int dx, int dy) {
+		if(dx == 0 && dy == 0) {
+			return false;
+		}
+		int newX = x[id] + dx;
+		int newY = y[id] + dy;
+		if(newX < 0 || newX >= width || newY < 0 || newY >= height || cells[cell(newX, newY)] != EMPTY) {
+			return false;
+		}
+		cells[cell(x[id], y[id])] = EMPTY;
+		x[id] = newX;
+		y[id] = newY;
+		cells[cell(newX, newY)] = id;
+		return true;
+	}
+
+	private int closestEnemy(int id) {
+		int best = EMPTY;
+		int bestDist = Integer.MAX_VALUE;
+		for(int foe : unitIds.get(1 - owner[id])) {
+			int dist = Math.max(Math.abs(x[id] - x[foe]), Math.abs(y[id] - y[foe]));
+			if(dist < bestDist) {
+				bestDist = dist;
+				best = foe;
+			}
+		}
+		return best;
+	}
+
+	private int cell(int cellX, int cellY) {
+		return cellY * width + cellX;
+	}
+
+	public boolean isTerminal() {
+		return unitIds.get(0).isEmpty() || unitIds.get(1).isEmpty() || step >= MAX_STEPS;
+	}
+
+	/**
+	 *
+	 * @return true if the footmen of player 0 won the episode
+	 */
+	public boolean friendlyWon() {
+		return unitIds.get(1).isEmpty() && !unitIds.get(0).isEmpty();
+	}
+
+	public int getStep() {
+		return step;
+	}
+
+	@Override
+	public List<Integer> getUnitIds(int player) {
+		return unitIds.get(player);
+	}
+
+	@Override
+	public boolean isAlive(int unitId) {
+		return unitId >= 0 && unitId < alive.length && alive[unitId];
+	}
+
+	@Override
+	public int getHP(int unitId) {
+		return hp[unitId];
+	}
+
+	@Override
+	public int getXPosition(int unitId) {
+		return x[unitId];
+	}
+
+	@Override
+	public int getYPosition(int unitId) {
+		return y[unitId];
+	}
+
+	/**
+	 * Trains agents against the simulator.
+	 * Arguments: episodes per worker, workers, footmen per side, seed.
+	 */
+	public static void main(String[] args) throws Exception {
+		final int episodes = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		final int footmen = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		final long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+		Random random = new Random(seed);
+		double[] initial = new double[new DefaultFeatures().getNumFeatures()];
+		for(int i = 0; i < initial.length; i++) {
+			initial[i] = random.nextDouble() * 2 - 1;
+		}
+		final int size = Math.max(footmen, 16);
+		ParallelTrainer trainer = new ParallelTrainer(workers, new String[] {Integer.toString(episodes), "seed=" + seed},
+				new SharedWeights(initial), worker -> new CombatSimulator(size, size, footmen, seed + worker));
+		long start = System.nanoTime();
+		int played = trainer.train();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println("Episodes played: " + played + " in " + seconds + "s");
+		System.out.println("Weights: " + Arrays.toString(trainer.getWeights().snapshot()));
+	}
+}
@@ -0,0 +1,33 @@
+import java.util.List;
+
+/**
+ * The part of the game state the RLAgent looks at: which units each player
+ * still has and their HP and positions.  SEPIA's StateView is adapted to it
+ * by SepiaCombatView, and CombatSimulator implements it directly.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public interface CombatView {
+
+	/**
+	 * 
+	 * @param player - 0 for the footmen, 1 for the enemies
+	 * @return the ids of the player's living units
+	 */
+	public List<Integer> getUnitIds(int player);
+
+	/**
+	 * 
+	 * @param unitId - ID of the unit you are concerned with.
+	 * @return true if the unit is still on the map
+	 */
+	public boolean isAlive(int unitId);
+
+	public int getHP(int unitId);
+
+	public int getXPosition(int unitId);
+
+	public int getYPosition(int unitId);
+}
@@ -0,0 +1,91 @@
+/**
+ * The seven features the agent was designed with:
+ * <pre>
+ * 0  constant 1
+ * 1  Chebychev distance between the footman and the enemy
+ * 2  enemy HP
+ * 3  footman HP
+ * 4  number of footmen attacking the enemy
+ * 5  footman x position
+ * 6  footman y position
+ * </pre>
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class DefaultFeatures extends FeatureExtractor {
+
+	private static final int[] FOOTMAN = {0, 3, 5, 6};
+	private static final int[] ENEMY = {2, 4};
+	private static final int[] PAIR = {1};
+
+	@Override
+	public int getNumFeatures() {
+		return 7;
+	}
+
+	@Override
+	public int[] getFootmanFeatures() {
+		return FOOTMAN;
+	}
+
+	@Override
+	public int[] getEnemyFeatures() {
+		return ENEMY;
+	}
+
+	@Override
+	public int[] getPairFeatures() {
+		return PAIR;
+	}
+
+	@Override
+	public int getDistanceFeature() {
+		return 1;
+	}
+
+	@Override
+	public int getBiasFeature() {
+		return 0;
+	}
+
+	@Override
+	public boolean isSeparable() {
+		return true;
+	}
+
+	@Override
+	public void footmanFeatures(double[] out, int offset, int footX, int footY, int footHP) {
+		out[offset] = 1;
+		out[offset + 3] = footHP;
+		out[offset + 5] = footX;
+		out[offset + 6] = footY;
+	}
+
+	@Override
+	public void enemyFeatures(double[] out, int offset, int enemyX, int enemyY, int enemyHP, int numAttackers) {
+		out[offset + 2] = enemyHP;
+		out[offset + 4] = numAttackers;
+	}
+
+	@Override
+	public void pairFeatures(double[] out, int offset, int footX, int footY, int enemyX, int enemyY) {
+		out[offset + 1] = Math.max(Math.abs(enemyX - footX), Math.abs(enemyY - footY));
+	}
+
+	@Override
+	public double footmanTerm(double[] weights, int footX, int footY, int footHP) {
+		return weights[0] + weights[3] * footHP + weights[5] * footX + weights[6] * footY;
+	}
+
+	@Override
+	public double enemyTerm(double[] weights, int enemyX, int enemyY, int enemyHP, int numAttackers) {
+		return weights[2] * enemyHP + weights[4] * numAttackers;
+	}
+
+	@Override
+	public double pairTerm(double[] weights, int footX, int footY, int enemyX, int enemyY) {
+		return weights[1] * Math.max(Math.abs(enemyX - footX), Math.abs(enemyY - footY));
+	}
+}
@@ -0,0 +1,206 @@
+import java.util.Arrays;
+
+/**
+ * A uniform grid of buckets over the enemies' positions.  Enemies are added
+ * once, moved as their positions are refreshed and removed when they die,
+ * each in constant time.  Queries walk the buckets in growing square rings
+ * around a footman, which matches the Chebyshev distance the Q function
+ * uses.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class EnemyGrid {
+
+	private static final int NONE = -1;
+
+	private final int cellSize;
+	private int columns;
+	private int rows;
+	private int[][] cells;
+	private int[] cellSizes;
+
+	private int[] cellOf = new int[0];
+	private int[] posInCell = new int[0];
+	private int[] xOf = new int[0];
+	private int[] yOf = new int[0];
+
+	private int[] found = new int[16];
+	private int[] foundDistances = new int[16];
+
+	/**
+	 *
+	 * @param cellSize - width and height of a bucket in map squares
+	 */
+	public EnemyGrid(int cellSize) {
+		this.cellSize = Math.max(1, cellSize);
+		columns = 1;
+		rows = 1;
+		cells = new int[1][4];
+		cellSizes = new int[1];
+	}
+
+	public void clear() {
+		Arrays.fill(cellSizes, 0);
+		Arrays.fill(cellOf, NONE);
+	}
+
+	public void add(int id, int x, int y) {
+		if(id >= cellOf.length) {
+			int oldLength = cellOf.length;
+			int length = Math.max(id + 1, oldLength * 2);
+			cellOf = Arrays.copyOf(cellOf, length);
+			Arrays.fill(cellOf, oldLength, length, NONE);
+			posInCell = Arrays.copyOf(posInCell, length);
+			xOf = Arrays.copyOf(xOf, length);
+			yOf = Arrays.copyOf(yOf, length);
+		}
+		if(cellOf[id] != NONE) {
+			move(id, x, y);
+			return;
+		}
+		ensureCovers(x, y);
+		xOf[id] = x;
+		yOf[id] = y;
+		insert(id, cellIndex(x, y));
+	}
+
+	/**
+	 * updates the position of an enemy that is already in the grid
+	 */
+	public void move(int id, int x, int y) {
+		if(!contains(id)) {
+			add(id, x, y);
+			return;
+		}
+		xOf[id] = x;
+		yOf[id] = y;
+		ensureCovers(x, y);
+		int cell = cellIndex(x, y);
+		if(cell != cellOf[id]) {
+			delete(id);
+			insert(id, cell);
+		}
+	}
+
+	public void remove(int id) {
+		if(contains(id)) {
+			delete(id);
+		}
+	}
+
+	public boolean contains(int id) {
+		return id >= 0 && id < cellOf.length && cellOf[id] != NONE;
+	}
+
+	private void insert(int id, int cell) {
+		if(cellSizes[cell] == cells[cell].length) {
+			cells[cell] = Arrays.copyOf(cells[cell], cells[cell].length * 2);
+		}
+		posInCell[id] = cellSizes[cell];
+		cells[cell][cellSizes[cell]++] = id;
+		cellOf[id] = cell;
+	}
+
+	private void delete(int id) {
+		int cell = cellOf[id];
+		int pos = posInCell[id];
+		int last = cells[cell][--cellSizes[cell]];
+		cells[cell][pos] = last;
+		posInCell[last] = pos;
+		cellOf[id] = NONE;
+	}
+
+	private int cellIndex(int x, int y) {
+		return (y / cellSize) * columns + x / cellSize;
+	}
+
+	/**
+	 * grows the grid until (x, y) falls inside it, re-bucketing every enemy
+	 */
+	private void ensureCovers(int x, int y) {
+		int neededColumns = Math.max(columns, x / cellSize + 1);
+		int neededRows = Math.max(rows, y / cellSize + 1);
+		if(neededColumns == columns && neededRows == rows) {
+			return;
+		}
+		columns = neededColumns;
+		rows = neededRows;
+		cells = new int[columns * rows][4];
+		cellSizes = new int[columns * rows];
+		for(int id = 0; id < cellOf.length; id++) {
+			if(cellOf[id] != NONE) {
+				insert(id, cellIndex(xOf[id], yOf[id]));
+			}
+		}
+	}
+
+	/**
+	 * Finds at least the k enemies closest to (x, y), or every enemy if there
+	 * are fewer than k.  More than k may be returned, all enemies in the last
+	 * ring visited are included.
+	 * @param x
+	 * @param y
+	 * @param k
+	 * @return the number of enemy ids written to {@link #getFound()}
+	 */
+	public int collectNearest(int x, int y, int k) {
+		int numFound = 0;
+		int kthDistance = Integer.MAX_VALUE;
+		int centerX = Math.min(x / cellSize, columns - 1);
+		int centerY = Math.min(y / cellSize, rows - 1);
+		int maxRing = Math.max(Math.max(centerX, columns - 1 - centerX), Math.max(centerY, rows - 1 - centerY));
+		for(int ring = 0; ring <= maxRing; ring++) {
+			for(int cy = centerY - ring; cy <= centerY + ring; cy++) {
+				if(cy < 0 || cy >= rows) {
+					continue;
+				}
+				boolean edgeRow = cy == centerY - ring || cy == centerY + ring;
+				int step = edgeRow ? 1 : 2 * ring;
+				for(int cx = centerX - ring; cx <= centerX + ring; cx += Math.max(step, 1)) {
+					if(cx < 0 || cx >= columns) {
+						continue;
+					}
+					int cell = cy * columns + cx;
+					for(int i = 0; i < cellSizes[cell]; i++) {
+						if(numFound == found.length) {
+							found = Arrays.copyOf(found, numFound * 2);
+						}
+						found[numFound++] = cells[cell][i];
+					}
+				}
+			}
+			if(numFound >= k) {
+				if(kthDistance == Integer.MAX_VALUE) {
+					kthDistance = kthDistance(x, y, numFound, k);
+				}
+				//anything in the next ring is at least ring * cellSize + 1 away
+				if(kthDistance <= ring * cellSize) {
+					break;
+				}
+			}
+		}
+		return numFound;
+	}
+
+	private int kthDistance(int x, int y, int numFound, int k) {
+		if(foundDistances.length < numFound) {
+			foundDistances = new int[found.length];
+		}
+		for(int i = 0; i < numFound; i++) {
+			int id = found[i];
+			foundDistances[i] = Math.max(Math.abs(xOf[id] - x), Math.abs(yOf[id] - y));
+		}
+		Arrays.sort(foundDistances, 0, numFound);
+		return foundDistances[k - 1];
+	}
+
+	/**
+	 *
+	 * @return the ids filled in by the last call to collectNearest
+	 */
+	public int[] getFound() {
+		return found;
+	}
+}
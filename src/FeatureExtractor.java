@@ -0,0 +1,163 @@
+/**
+ * Turns a (footman, enemy) pair into the feature vector the Q function is
+ * linear in.  Every feature belongs to exactly one of three groups: those
+ * that only depend on the footman, those that only depend on the enemy
+ * (including how many footmen attack it) and those that depend on both.
+ * Callers use the groups to compute the footman and enemy parts once per
+ * step instead of once per pair.
+ *
+ * The term methods may be called from several threads at once, each thread
+ * gets its own scratch buffer.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public abstract class FeatureExtractor {
+
+	private final ThreadLocal<double[]> scratch = new ThreadLocal<double[]>();
+
+	public abstract int getNumFeatures();
+
+	/**
+	 * 
+	 * @return the indices of the features that only depend on the footman
+	 */
+	public abstract int[] getFootmanFeatures();
+
+	/**
+	 * 
+	 * @return the indices of the features that only depend on the enemy
+	 */
+	public abstract int[] getEnemyFeatures();
+
+	/**
+	 * 
+	 * @return the indices of the features that depend on both units
+	 */
+	public abstract int[] getPairFeatures();
+
+	/**
+	 * writes the footman features of a vector starting at offset
+	 */
+	public abstract void footmanFeatures(double[] out, int offset, int footX, int footY, int footHP);
+
+	/**
+	 * writes the enemy features of a vector starting at offset
+	 */
+	public abstract void enemyFeatures(double[] out, int offset, int enemyX, int enemyY, int enemyHP, int numAttackers);
+
+	/**
+	 * writes the pair features of a vector starting at offset
+	 */
+	public abstract void pairFeatures(double[] out, int offset, int footX, int footY, int enemyX, int enemyY);
+
+	/**
+	 * 
+	 * @return the index of the Chebychev distance feature, or -1 if there is none
+	 */
+	public int getDistanceFeature() {
+		return -1;
+	}
+
+	/**
+	 * 
+	 * @return the index of the feature that is always 1, or -1 if there is none
+	 */
+	public int getBiasFeature() {
+		return -1;
+	}
+
+	/**
+	 * 
+	 * @return true if the footman and enemy terms are a sum of one function per argument and
+	 * the pair term only depends on the offset between the units, see {@link FrozenTables}
+	 */
+	public boolean isSeparable() {
+		return false;
+	}
+
+	/**
+	 * writes the whole feature vector of a pair starting at offset
+	 */
+	public void extract(double[] out, int offset, int footX, int footY, int footHP,
+			int enemyX, int enemyY, int enemyHP, int numAttackers) {
+		footmanFeatures(out, offset, footX, footY, footHP);
+		enemyFeatures(out, offset, enemyX, enemyY, enemyHP, numAttackers);
+		pairFeatures(out, offset, footX, footY, enemyX, enemyY);
+	}
+
+	/**
+	 * copies the footman features out of a vector that already holds them,
+	 * then fills in the rest for a new enemy
+	 * @param footman - a vector whose footman features are set
+	 */
+	public void extractForFootman(double[] out, int offset, double[] footman, int footX, int footY,
+			int enemyX, int enemyY, int enemyHP, int numAttackers) {
+		for(int i : getFootmanFeatures()) {
+			out[offset + i] = footman[i];
+		}
+		enemyFeatures(out, offset, enemyX, enemyY, enemyHP, numAttackers);
+		pairFeatures(out, offset, footX, footY, enemyX, enemyY);
+	}
+
+	/**
+	 * 
+	 * @return the part of the Q value contributed by the footman features
+	 */
+	public double footmanTerm(double[] weights, int footX, int footY, int footHP) {
+		double[] features = scratch();
+		footmanFeatures(features, 0, footX, footY, footHP);
+		return dot(weights, features, getFootmanFeatures());
+	}
+
+	/**
+	 * 
+	 * @return the part of the Q value contributed by the enemy features
+	 */
+	public double enemyTerm(double[] weights, int enemyX, int enemyY, int enemyHP, int numAttackers) {
+		double[] features = scratch();
+		enemyFeatures(features, 0, enemyX, enemyY, enemyHP, numAttackers);
+		return dot(weights, features, getEnemyFeatures());
+	}
+
+	/**
+	 * 
+	 * @return the part of the Q value contributed by the pair features
+	 */
+	public double pairTerm(double[] weights, int footX, int footY, int enemyX, int enemyY) {
+		double[] features = scratch();
+		pairFeatures(features, 0, footX, footY, enemyX, enemyY);
+		return dot(weights, features, getPairFeatures());
+	}
+
+	private double[] scratch() {
+		double[] features = scratch.get();
+		if(features == null) {
+			features = new double[getNumFeatures()];
+			scratch.set(features);
+		}
+		return features;
+	}
+
+	private static double dot(double[] weights, double[] features, int[] indices) {
+		double sum = 0;
+		for(int i : indices) {
+			sum += weights[i] * features[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * 
+	 * @param className - name of a FeatureExtractor subclass with a no argument constructor
+	 * @return a new instance of it
+	 */
+	public static FeatureExtractor create(String className) {
+		try {
+			return Class.forName(className).asSubclass(FeatureExtractor.class).getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException | ClassCastException e) {
+			throw new IllegalArgumentException("Could not create feature extractor " + className, e);
+		}
+	}
+}
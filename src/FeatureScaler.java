@@ -0,0 +1,77 @@
+/**
+ * Keeps a running mean and variance of every feature (Welford's method) and
+ * turns a feature vector into the step a gradient update would take if the
+ * Q function were fitted on standardized features, (f - mean) / deviation.
+ * The weights themselves stay in raw feature space, so evaluating the Q
+ * function costs nothing extra: a unit step in standardized space is a step
+ * of (f - mean) / deviation^2 in raw space, and the shift the centering
+ * introduces is folded into the bias weight.
+ *
+ * Features that have not varied yet are used as they are.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class FeatureScaler {
+
+	private final int biasFeature;
+	private final double[] mean;
+	private final double[] sumSquares;
+	private long count;
+
+	/**
+	 * 
+	 * @param numFeatures - length of a feature vector
+	 * @param biasFeature - index of the constant feature, or -1 if there is none
+	 */
+	public FeatureScaler(int numFeatures, int biasFeature) {
+		this.biasFeature = biasFeature;
+		mean = new double[numFeatures];
+		sumSquares = new double[numFeatures];
+	}
+
+	/**
+	 * adds a feature vector to the running statistics
+	 */
+	public void observe(double[] features, int offset) {
+		count++;
+		for(int i = 0; i < mean.length; i++) {
+			double value = features[offset + i];
+			double delta = value - mean[i];
+			mean[i] += delta / count;
+			sumSquares[i] += delta * (value - mean[i]);
+		}
+	}
+
+	/**
+	 * writes the raw space step for a gradient of features starting at offset
+	 * @param out - receives one value per feature
+	 */
+	public void direction(double[] features, int offset, double[] out) {
+		double shift = 0;
+		for(int i = 0; i < mean.length; i++) {
+			double value = features[offset + i];
+			double variance = count > 1 ? sumSquares[i] / (count - 1) : 0;
+			if(i == biasFeature || variance <= 0) {
+				out[i] = value;
+				continue;
+			}
+			double deviation = Math.sqrt(variance);
+			double standardized = (value - mean[i]) / deviation;
+			out[i] = standardized / deviation;
+			shift += standardized * mean[i] / deviation;
+		}
+		if(biasFeature >= 0) {
+			out[biasFeature] -= shift;
+		}
+	}
+
+	public double getMean(int feature) {
+		return mean[feature];
+	}
+
+	public double getVariance(int feature) {
+		return count > 1 ? sumSquares[feature] / (count - 1) : 0;
+	}
+}
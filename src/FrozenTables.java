@@ -0,0 +1,210 @@
+/**
+ * Scores pairs for one fixed weight vector by table lookups.  For features
+ * whose footman and enemy terms are a sum of one function per argument and
+ * whose pair term only depends on the offset between the units (see
+ * {@link FeatureExtractor#isSeparable()}), the weighted sum of every bounded
+ * integer argument is read off a table built once: x, y and HP of both
+ * units, the attacker count and the offset.  If the Chebychev distance is
+ * the only pair feature the pair table is indexed by the distance instead,
+ * which keeps it small enough to stay in cache on large maps.  A Q value is
+ * then a few table reads and adds.
+ *
+ * Calls with other weights or with arguments outside the tables are passed
+ * on to the wrapped extractor, so the tables only change speed, not results.
+ * The weights must not change while the tables are used.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class FrozenTables extends FeatureExtractor {
+
+	private final FeatureExtractor features;
+	private final double[] weights;
+	private final int width;
+	private final int height;
+	private final int maxHP;
+	private final int maxAttackers;
+
+	private final double[] footX;
+	private final double[] footY;
+	private final double[] footHP;
+	private final double[] enemyX;
+	private final double[] enemyY;
+	private final double[] enemyHP;
+	private final double[] attackers;
+	private final double[] offset;
+	private final double[] distance;
+
+	/**
+	 *
+	 * @param features - a separable extractor
+	 * @param weights - the frozen weights, kept by reference
+	 * @param width - one past the largest x the tables cover
+	 * @param height - one past the largest y the tables cover
+	 * @param maxHP - the largest HP the tables cover
+	 * @param maxAttackers - the largest attacker count the tables cover
+	 */
+	public FrozenTables(FeatureExtractor features, double[] weights, int width, int height, int maxHP, int maxAttackers) {
+		if(!features.isSeparable()) {
+			throw new IllegalArgumentException(features.getClass().getName() + " can't be turned into tables");
+		}
+		this.features = features;
+		this.weights = weights;
+		this.width = Math.max(1, width);
+		this.height = Math.max(1, height);
+		this.maxHP = Math.max(0, maxHP);
+		this.maxAttackers = Math.max(0, maxAttackers);
+
+		//the constant parts are folded into the x tables
+		footX = new double[this.width];
+		footY = new double[this.height];
+		footHP = new double[this.maxHP + 1];
+		double footBase = features.footmanTerm(weights, 0, 0, 0);
+		for(int x = 0; x < this.width; x++) {
+			footX[x] = features.footmanTerm(weights, x, 0, 0);
+		}
+		for(int y = 0; y < this.height; y++) {
+			footY[y] = features.footmanTerm(weights, 0, y, 0) - footBase;
+		}
+		for(int hp = 0; hp <= this.maxHP; hp++) {
+			footHP[hp] = features.footmanTerm(weights, 0, 0, hp) - footBase;
+		}
+
+		enemyX = new double[this.width];
+		enemyY = new double[this.height];
+		enemyHP = new double[this.maxHP + 1];
+		attackers = new double[this.maxAttackers + 1];
+		double enemyBase = features.enemyTerm(weights, 0, 0, 0, 0);
+		for(int x = 0; x < this.width; x++) {
+			enemyX[x] = features.enemyTerm(weights, x, 0, 0, 0);
+		}
+		for(int y = 0; y < this.height; y++) {
+			enemyY[y] = features.enemyTerm(weights, 0, y, 0, 0) - enemyBase;
+		}
+		for(int hp = 0; hp <= this.maxHP; hp++) {
+			enemyHP[hp] = features.enemyTerm(weights, 0, 0, hp, 0) - enemyBase;
+		}
+		for(int n = 0; n <= this.maxAttackers; n++) {
+			attackers[n] = features.enemyTerm(weights, 0, 0, 0, n) - enemyBase;
+		}
+
+		int[] pair = features.getPairFeatures();
+		if(pair.length == 1 && pair[0] == features.getDistanceFeature()) {
+			offset = null;
+			distance = new double[Math.max(this.width, this.height)];
+			for(int d = 0; d < distance.length; d++) {
+				distance[d] = features.pairTerm(weights, 0, 0, d, d);
+			}
+		} else {
+			//indexed by the offset from the footman to the enemy, both ways
+			distance = null;
+			int rows = 2 * this.width - 1;
+			int columns = 2 * this.height - 1;
+			offset = new double[rows * columns];
+			for(int dx = 0; dx < rows; dx++) {
+				for(int dy = 0; dy < columns; dy++) {
+					offset[dx * columns + dy] = features.pairTerm(weights, this.width - 1, this.height - 1, dx, dy);
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return true if these tables were built for the given weights
+	 */
+	public boolean isFor(double[] weights) {
+		return this.weights == weights;
+	}
+
+	/**
+	 *
+	 * @return true if every argument falls inside the tables
+	 */
+	public boolean covers(int x, int y, int hp) {
+		return x >= 0 && x < width && y >= 0 && y < height && hp >= 0 && hp <= maxHP;
+	}
+
+	@Override
+	public double footmanTerm(double[] weights, int footX, int footY, int footHP) {
+		if(weights != this.weights || !covers(footX, footY, footHP)) {
+			return features.footmanTerm(weights, footX, footY, footHP);
+		}
+		return this.footX[footX] + this.footY[footY] + this.footHP[footHP];
+	}
+
+	@Override
+	public double enemyTerm(double[] weights, int enemyX, int enemyY, int enemyHP, int numAttackers) {
+		if(weights != this.weights || !covers(enemyX, enemyY, enemyHP) || numAttackers < 0 || numAttackers > maxAttackers) {
+			return features.enemyTerm(weights, enemyX, enemyY, enemyHP, numAttackers);
+		}
+		return this.enemyX[enemyX] + this.enemyY[enemyY] + this.enemyHP[enemyHP] + attackers[numAttackers];
+	}
+
+	@Override
+	public double pairTerm(double[] weights, int footX, int footY, int enemyX, int enemyY) {
+		if(distance != null) {
+			int d = Math.max(Math.abs(enemyX - footX), Math.abs(enemyY - footY));
+			if(weights != this.weights || d >= distance.length) {
+				return features.pairTerm(weights, footX, footY, enemyX, enemyY);
+			}
+			return distance[d];
+		}
+		if(weights != this.weights || !covers(footX, footY, 0) || !covers(enemyX, enemyY, 0)) {
+			return features.pairTerm(weights, footX, footY, enemyX, enemyY);
+		}
+		int columns = 2 * height - 1;
+		return offset[(enemyX - footX + width - 1) * columns + enemyY - footY + height - 1];
+	}
+
+	@Override
+	public int getNumFeatures() {
+		return features.getNumFeatures();
+	}
+
+	@Override
+	public int[] getFootmanFeatures() {
+		return features.getFootmanFeatures();
+	}
+
+	@Override
+	public int[] getEnemyFeatures() {
+		return features.getEnemyFeatures();
+	}
+
+	@Override
+	public int[] getPairFeatures() {
+		return features.getPairFeatures();
+	}
+
+	@Override
+	public int getDistanceFeature() {
+		return features.getDistanceFeature();
+	}
+
+	@Override
+	public int getBiasFeature() {
+		return features.getBiasFeature();
+	}
+
+	@Override
+	public boolean isSeparable() {
+		return true;
+	}
+
+	@Override
+	public void footmanFeatures(double[] out, int offset, int footX, int footY, int footHP) {
+		features.footmanFeatures(out, offset, footX, footY, footHP);
+	}
+
+	@Override
+	public void enemyFeatures(double[] out, int offset, int enemyX, int enemyY, int enemyHP, int numAttackers) {
+		features.enemyFeatures(out, offset, enemyX, enemyY, enemyHP, numAttackers);
+	}
+
+	@Override
+	public void pairFeatures(double[] out, int offset, int footX, int footY, int enemyX, int enemyY) {
+		features.pairFeatures(out, offset, footX, footY, enemyX, enemyY);
+	}
+}
@@ -0,0 +1,194 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains one agent per configuration against the headless simulator, many
+ * configurations at once, and reports how many episodes each took to
+ * converge.  A run has converged once its evaluation reward has stayed
+ * within the tolerance of the previous evaluation for the given number of
+ * evaluations in a row.
+ *
+ * Arguments: maximum episodes, threads, footmen per side, seed, then one or
+ * more configurations.  A configuration is a comma separated list of agent
+ * arguments; a value may list alternatives separated by '|', which expands
+ * into one configuration per combination, for example
+ * "epsilon=0.01|0.02,discount=0.7|0.9" is four configurations.  One JSON
+ * line per configuration is printed, in the order given, and the agents'
+ * own console output is discarded.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class HyperparameterSweep {
+
+	private static final double TOLERANCE = 0.05;
+	private static final int STABLE_EVALUATIONS = 3;
+
+	private final int maxEpisodes;
+	private final int footmen;
+	private final long seed;
+
+	public HyperparameterSweep(int maxEpisodes, int footmen, long seed) {
+		this.maxEpisodes = maxEpisodes;
+		this.footmen = footmen;
+		this.seed = seed;
+	}
+
+	/**
+	 * expands the '|' alternatives of a configuration into every combination
+	 * @param configuration - comma separated key=value pairs
+	 * @return the agent arguments after the episode count, one array per combination
+	 */
+	public static List<String[]> expand(String configuration) {
+		List<String[]> combinations = new ArrayList<String[]>();
+		combinations.add(new String[0]);
+		if(configuration.trim().isEmpty()) {
+			return combinations;
+		}
+		for(String pair : configuration.split(",")) {
+			int split = pair.indexOf('=');
+			if(split < 0) {
+				throw new IllegalArgumentException("Expected key=value but got " + pair);
+			}
+			String key = pair.substring(0, split).trim();
+			String[] values = pair.substring(split + 1).split("\\|");
+			List<String[]> expanded = new ArrayList<String[]>();
+			for(String[] combination : combinations) {
+				for(String value : values) {
+					String[] longer = Arrays.copyOf(combination, combination.length + 1);
+					longer[combination.length] = key + "=" + value.trim();
+					expanded.add(longer);
+				}
+			}
+			combinations = expanded;
+		}
+		return combinations;
+	}
+
+	/**
+	 * trains one configuration until it converges or runs out of episodes
+	 * @param arguments - agent arguments after the episode count
+	 * @return the result as a JSON line
+	 */
+	public String run(String[] arguments) {
+		return run(arguments, 0);
+	}
+
+	/**
+	 * trains one of several configurations run at once
+	 * @param arguments - agent arguments after the episode count
+	 * @param trial - number of the configuration, appended to its metrics file and MBean name
+	 * @return the result as a JSON line
+	 */
+	public String run(String[] arguments, int trial) {
+		String[] agentArguments = new String[arguments.length + 2];
+		agentArguments[0] = Integer.toString(maxEpisodes);
+		agentArguments[1] = "seed=" + seed;
+		System.arraycopy(arguments, 0, agentArguments, 2, arguments.length);
+		agentArguments = AgentConfig.forWorker(agentArguments, trial);
+
+		RLAgent agent = new RLAgent(0, agentArguments, null, AgentConfig.parse(agentArguments).createRandom(), false);
+		int size = Math.max(footmen, 16);
+		CombatSimulator simulator = new CombatSimulator(size, size, footmen, seed);
+
+		long start = System.nanoTime();
+		int convergedAt = -1;
+		int stable = 0;
+		int evaluations = 0;
+		double previous = Double.NaN;
+		try {
+			while(!agent.isFinished() && convergedAt < 0) {
+				simulator.runEpisode(agent);
+				if(agent.getNumEvaluations() == evaluations) {
+					continue;
+				}
+				evaluations = agent.getNumEvaluations();
+				double reward = agent.getEvaluationReward();
+				if(Math.abs(reward - previous) <= TOLERANCE * Math.max(1, Math.abs(previous))) {
+					stable++;
+				} else {
+					stable = 0;
+				}
+				previous = reward;
+				if(stable >= STABLE_EVALUATIONS) {
+					convergedAt = agent.getNumEpisodes();
+				}
+			}
+		} finally {
+			agent.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		StringBuilder json = new StringBuilder("{\"config\":\"");
+		for(int i = 0; i < arguments.length; i++) {
+			json.append(i > 0 ? "," : "").append(arguments[i]);
+		}
+		json.append("\",\"episodesToConvergence\":").append(convergedAt)
+				.append(",\"episodesPlayed\":").append(agent.getNumEpisodes())
+				.append(",\"evaluationReward\":").append(agent.getEvaluationReward())
+				.append(",\"seconds\":").append(seconds).append('}');
+		return json.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 5) {
+			System.err.println("Usage: HyperparameterSweep <max episodes> <threads> <footmen> <seed> <config>...");
+			return;
+		}
+		int maxEpisodes = Integer.parseInt(args[0]);
+		int threads = Integer.parseInt(args[1]);
+		int footmen = Integer.parseInt(args[2]);
+		long seed = Long.parseLong(args[3]);
+		final HyperparameterSweep sweep = new HyperparameterSweep(maxEpisodes, footmen, seed);
+
+		List<String[]> configurations = new ArrayList<String[]>();
+		for(int i = 4; i < args.length; i++) {
+			configurations.addAll(expand(args[i]));
+		}
+		for(String[] configuration : configurations) {
+			AgentConfig config = AgentConfig.parse(withEpisodes(configuration));
+			//every run would write the same file at once
+			if(config.getCheckpointFile() != null || config.getTraceFile() != null) {
+				throw new IllegalArgumentException("checkpoint and trace can't be swept");
+			}
+		}
+
+		PrintStream results = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<String>> runs = new ArrayList<Future<String>>();
+			for(int i = 0; i < configurations.size(); i++) {
+				final String[] configuration = configurations.get(i);
+				final int trial = i;
+				runs.add(pool.submit(() -> sweep.run(configuration, trial)));
+			}
+			for(Future<String> result : runs) {
+				results.println(result.get());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * puts a placeholder episode count in front so a configuration can be validated
+	 */
+	private static String[] withEpisodes(String[] configuration) {
+		String[] arguments = new String[configuration.length + 1];
+		arguments[0] = "0";
+		System.arraycopy(configuration, 0, arguments, 1, configuration.length);
+		return arguments;
+	}
+}
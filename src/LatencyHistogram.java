@@ -0,0 +1,66 @@
+/**
+ * A histogram of durations in nanoseconds with one bucket per power of two.
+ * Recording is a couple of arithmetic operations and one array increment,
+ * percentiles are reported as the upper bound of their bucket.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class LatencyHistogram {
+
+	private final long[] buckets = new long[64];
+	private long count;
+	private long total;
+	private long max;
+
+	public void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		buckets[63 - Long.numberOfLeadingZeros(nanos | 1)]++;
+		count++;
+		total += nanos;
+		if(nanos > max) {
+			max = nanos;
+		}
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double)total / count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * 
+	 * @param fraction - between 0 and 1, 0.99 for the 99th percentile
+	 * @return an upper bound on the given percentile
+	 */
+	public long getPercentile(double fraction) {
+		long rank = (long)Math.ceil(fraction * count);
+		long seen = 0;
+		for(int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if(seen >= rank && seen > 0) {
+				return i >= 62 ? max : Math.min(max, (2L << i) - 1);
+			}
+		}
+		return max;
+	}
+
+	public void clear() {
+		for(int i = 0; i < buckets.length; i++) {
+			buckets[i] = 0;
+		}
+		count = 0;
+		total = 0;
+		max = 0;
+	}
+}
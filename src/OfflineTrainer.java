@@ -0,0 +1,107 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Trains an agent from recorded episode traces instead of live games.  Each
+ * recorded step is fed to the agent as a TraceView with the recorded
+ * targets forced, so the agent sees exactly the states, actions and rewards
+ * of the original game and only the engine's work is skipped.
+ *
+ * Given the seed and settings of the recording agent, replaying its trace
+ * reproduces its weights exactly.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class OfflineTrainer {
+
+	private final RLAgent agent;
+	private final TraceView view = new TraceView();
+	private double recordedReward;
+
+	public OfflineTrainer(RLAgent agent) {
+		this.agent = agent;
+	}
+
+	/**
+	 * plays every complete episode of a trace through the agent
+	 * @param file - the trace
+	 * @return the number of episodes replayed
+	 * @throws IOException if the file is not a trace
+	 */
+	public int train(File file) throws IOException {
+		TraceReader reader = new TraceReader(file);
+		int episodes = 0;
+		boolean started = false;
+		for(int type = reader.next(); type != 0; type = reader.next()) {
+			if(type == TraceWriter.EPISODE) {
+				started = false;
+			} else if(type == TraceWriter.STEP) {
+				view.load(reader);
+				agent.clearForcedTargets();
+				for(int i = 0; i < reader.getNumFootmen(); i++) {
+					agent.forceTarget(reader.footmanId(i), reader.footmanTarget(i));
+				}
+				if(started) {
+					agent.middleStep(view);
+				} else {
+					agent.initialStep(view);
+					started = true;
+				}
+			} else if(type == TraceWriter.END && started) {
+				agent.terminalStep(view);
+				recordedReward += reader.getReward();
+				episodes++;
+				started = false;
+			}
+		}
+		agent.clearForcedTargets();
+		return episodes;
+	}
+
+	/**
+	 * 
+	 * @return the sum of the rewards recorded for every episode replayed so far
+	 */
+	public double getRecordedReward() {
+		return recordedReward;
+	}
+
+	/**
+	 * Arguments: the checkpoint file to write, the number of passes over the
+	 * traces, a comma separated list of traces, then any agent arguments.
+	 * Every replayed episode learns unless cycle and learnEpisodes say otherwise.
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 3) {
+			System.err.println("Usage: OfflineTrainer <checkpoint> <passes> <trace>[,<trace>...] [agent arguments]");
+			return;
+		}
+		File output = new File(args[0]);
+		int passes = Integer.parseInt(args[1]);
+		String[] traces = args[2].split(",");
+		String[] agentArguments = new String[args.length];
+		agentArguments[0] = Integer.toString(Integer.MAX_VALUE - 1);
+		agentArguments[1] = "cycle=1";
+		agentArguments[2] = "learnEpisodes=1";
+		System.arraycopy(args, 3, agentArguments, 3, args.length - 3);
+
+		RLAgent agent = new RLAgent(0, agentArguments, null, null, false);
+		OfflineTrainer trainer = new OfflineTrainer(agent);
+		long start = System.nanoTime();
+		int episodes = 0;
+		for(int pass = 0; pass < passes; pass++) {
+			for(String trace : traces) {
+				episodes += trainer.train(new File(trace.trim()));
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		WeightCheckpoint checkpoint = agent.checkpoint();
+		new CheckpointFile(output, checkpoint.getWeights().length).save(checkpoint);
+		agent.close();
+		System.out.println("Episodes replayed: " + episodes + " in " + seconds + "s");
+		System.out.println("Average recorded reward: " + trainer.getRecordedReward() / Math.max(1, episodes));
+	}
+}
@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains several independent agents at once, one per worker thread, each
+ * playing its own episodes in its own environment.  All of them learn into
+ * the same SharedWeights, so the learned policy improves with every core
+ * that is added.
+ *
+ * Every agent gets its own random stream, split in worker order from the
+ * seed argument, and its own metrics file and MBean name, suffixed with
+ * the worker number.  How updates from different workers interleave still
+ * depends on thread timing.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class ParallelTrainer {
+
+	/**
+	 * Creates the environment a worker plays in.
+	 */
+	public interface EnvironmentFactory {
+		public CombatEnvironment create(int worker);
+	}
+
+	private final int numWorkers;
+	private final String[] agentArguments;
+	private final SharedWeights weights;
+	private final EnvironmentFactory environments;
+
+	/**
+	 * 
+	 * @param numWorkers - number of episodes played concurrently
+	 * @param agentArguments - arguments handed to every agent, the first is the number of episodes per worker
+	 * @param weights - the weight vector all of the agents learn into
+	 * @param environments - creates one environment per worker
+	 */
+	public ParallelTrainer(int numWorkers, String[] agentArguments, SharedWeights weights, EnvironmentFactory environments) {
+		this.numWorkers = numWorkers;
+		this.agentArguments = agentArguments;
+		this.weights = weights;
+		this.environments = environments;
+	}
+
+	/**
+	 * runs every worker until its agent has played all of its episodes
+	 * @return the total number of episodes played
+	 */
+	public int train() throws InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+		SplittableRandom seeds = AgentConfig.parse(agentArguments).createRandom();
+		try {
+			List<Future<Integer>> workers = new ArrayList<Future<Integer>>();
+			for(int i = 0; i < numWorkers; i++) {
+				final int worker = i;
+				final SplittableRandom random = seeds.split();
+				workers.add(pool.submit(() -> {
+					CombatEnvironment environment = environments.create(worker);
+					RLAgent agent = new RLAgent(0, AgentConfig.forWorker(agentArguments, worker), weights, random);
+					try {
+						while(!agent.isFinished()) {
+							environment.runEpisode(agent);
+						}
+						return agent.getNumEpisodes();
+					} finally {
+						agent.close();
+					}
+				}));
+			}
+			int episodes = 0;
+			for(Future<Integer> worker : workers) {
+				episodes += worker.get();
+			}
+			return episodes;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	public SharedWeights getWeights() {
+		return weights;
+	}
+}
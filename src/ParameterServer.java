@@ -0,0 +1,259 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.SplittableRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the authoritative weight vector for agents learning in several
+ * JVMs on the same machine.  Workers connect over a loopback socket, get
+ * the agent arguments every worker shares and the current weights, then
+ * push the sum of their local updates every few steps.  The reply to every
+ * push is the newest weights, so a worker never learns from a snapshot
+ * older than its last push.
+ *
+ * Every applied push advances the version by one.  A push whose snapshot
+ * is more than maxStaleness versions behind is dropped instead of applied,
+ * which bounds how stale the updates folded into the weights can be.
+ *
+ * The protocol, all in big endian order:
+ * <pre>
+ * server: int magic, int number of features, int argument count, UTF arguments,
+ *         long version, double weights[number of features]
+ * worker: byte PUSH, long version of its snapshot, double delta[number of features]
+ * server: boolean applied, long version, double weights[number of features]
+ * worker: byte CLOSE
+ * </pre>
+ *
+ * Arguments: port, checkpoint file, max staleness, then the agent
+ * arguments handed to every worker.  The weights start from the
+ * checkpoint if it exists, and are saved to it every CHECKPOINT_EVERY
+ * applied pushes and when the server shuts down.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class ParameterServer {
+	private static final Logger logger = Logger.getLogger(ParameterServer.class.getCanonicalName());
+
+	public static final int MAGIC = 0x524C5053;
+	public static final byte PUSH = 1;
+	public static final byte CLOSE = 2;
+	private static final int CHECKPOINT_EVERY = 64;
+
+	private final String[] hyperparameters;
+	private final AgentConfig config;
+	private final double[] weights;
+	private final int maxStaleness;
+	private final CheckpointFile checkpointFile;
+	private long version;
+	private long applied;
+	private long rejected;
+	private ServerSocket socket;
+
+	/**
+	 *
+	 * @param hyperparameters - agent arguments after the episode count, handed to every worker
+	 * @param checkpoint - where the weights are loaded from and saved to, null to keep them in memory
+	 * @param maxStaleness - how many versions behind a pushed update may be
+	 */
+	public ParameterServer(String[] hyperparameters, File checkpoint, int maxStaleness) throws IOException {
+		this.hyperparameters = hyperparameters;
+		this.maxStaleness = Math.max(0, maxStaleness);
+		String[] arguments = new String[hyperparameters.length + 1];
+		arguments[0] = "0";
+		System.arraycopy(hyperparameters, 0, arguments, 1, hyperparameters.length);
+		config = AgentConfig.parse(arguments);
+		if(config.getCheckpointFile() != null) {
+			throw new IllegalArgumentException("Workers share the weights and can't use checkpoint, give the server's checkpoint on its own");
+		}
+		int numFeatures = config.createFeatures().getNumFeatures();
+
+		weights = new double[numFeatures];
+		checkpointFile = checkpoint == null ? null : new CheckpointFile(checkpoint, numFeatures);
+		WeightCheckpoint saved = checkpointFile == null ? null : checkpointFile.load();
+		if(saved != null) {
+			System.arraycopy(saved.getWeights(), 0, weights, 0, numFeatures);
+		} else {
+			SplittableRandom random = config.createRandom();
+			for(int i = 0; i < numFeatures; i++) {
+				weights[i] = random.nextDouble() * 2 - 1;
+			}
+		}
+	}
+
+	/**
+	 * accepts workers on the loopback interface until {@link #close} is called,
+	 * each worker is served on its own thread
+	 * @param port - the port to listen on, 0 for any free port
+	 */
+	public void serve(int port) throws IOException {
+		synchronized(this) {
+			socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+			notifyAll();
+		}
+		while(!socket.isClosed()) {
+			final Socket worker;
+			try {
+				worker = socket.accept();
+			} catch(IOException e) {
+				if(socket.isClosed()) {
+					return;
+				}
+				throw e;
+			}
+			Thread thread = new Thread(() -> handle(worker), "parameter-server-worker");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 *
+	 * @return the port the server listens on, waiting until it does
+	 */
+	public synchronized int getPort() throws InterruptedException {
+		while(socket == null) {
+			wait();
+		}
+		return socket.getLocalPort();
+	}
+
+	private void handle(Socket worker) {
+		try(Socket connection = worker) {
+			connection.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+			double[] delta = new double[weights.length];
+			double[] current = new double[weights.length];
+
+			out.writeInt(MAGIC);
+			out.writeInt(weights.length);
+			out.writeInt(hyperparameters.length);
+			for(String argument : hyperparameters) {
+				out.writeUTF(argument);
+			}
+			write(out, snapshot(current), current);
+			out.flush();
+
+			while(true) {
+				byte request = in.readByte();
+				if(request == CLOSE) {
+					return;
+				}
+				if(request != PUSH) {
+					throw new IOException("Unknown request " + request);
+				}
+				long base = in.readLong();
+				for(int i = 0; i < delta.length; i++) {
+					delta[i] = in.readDouble();
+				}
+				boolean accepted = push(base, delta);
+				out.writeBoolean(accepted);
+				write(out, snapshot(current), current);
+				out.flush();
+			}
+		} catch(EOFException e) {
+			logger.fine("Worker disconnected");
+		} catch(IOException e) {
+			logger.log(Level.WARNING, "Lost a worker", e);
+		}
+	}
+
+	private static void write(DataOutputStream out, long version, double[] weights) throws IOException {
+		out.writeLong(version);
+		for(double weight : weights) {
+			out.writeDouble(weight);
+		}
+	}
+
+	/**
+	 * applies a worker's update unless it was learned from too old a snapshot
+	 * @param base - the version the worker's snapshot had
+	 * @param delta - the sum of the worker's updates since then
+	 * @return true if the update was applied
+	 */
+	public synchronized boolean push(long base, double[] delta) {
+		if(version - base > maxStaleness) {
+			rejected++;
+			return false;
+		}
+		for(int i = 0; i < weights.length; i++) {
+			weights[i] += delta[i];
+		}
+		version++;
+		applied++;
+		if(checkpointFile != null && applied % CHECKPOINT_EVERY == 0) {
+			try {
+				checkpointFile.save(checkpoint());
+			} catch(IOException e) {
+				logger.log(Level.WARNING, "Could not save checkpoint " + checkpointFile.getFile(), e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * copies the current weights
+	 * @return the version of the copied weights
+	 */
+	public synchronized long snapshot(double[] copy) {
+		System.arraycopy(weights, 0, copy, 0, weights.length);
+		return version;
+	}
+
+	public synchronized WeightCheckpoint checkpoint() {
+		return new WeightCheckpoint(config.getDiscount(), config.getLearningRate(0), config.getEpsilon(0), 0, weights);
+	}
+
+	public synchronized long getApplied() {
+		return applied;
+	}
+
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * stops accepting workers and saves the checkpoint
+	 */
+	public void close() throws IOException {
+		synchronized(this) {
+			if(socket != null) {
+				socket.close();
+			}
+			if(checkpointFile != null) {
+				checkpointFile.save(checkpoint());
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 3) {
+			System.err.println("Usage: ParameterServer <port> <checkpoint> <max staleness> [agent arguments]...");
+			return;
+		}
+		int port = Integer.parseInt(args[0]);
+		String[] hyperparameters = new String[args.length - 3];
+		System.arraycopy(args, 3, hyperparameters, 0, hyperparameters.length);
+		final ParameterServer server = new ParameterServer(hyperparameters, new File(args[1]), Integer.parseInt(args[2]));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				server.close();
+			} catch(IOException e) {
+				logger.log(Level.WARNING, "Could not save checkpoint", e);
+			}
+			System.out.println("Applied " + server.getApplied() + " pushes, dropped " + server.getRejected() + " stale ones");
+		}));
+		server.serve(port);
+	}
+}
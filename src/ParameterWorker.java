@@ -0,0 +1,49 @@
+import java.util.Arrays;
+
+/**
+ * Trains against the headless simulator like CombatSimulator does, but
+ * into the weights of a {@link ParameterServer}, so several worker JVMs on
+ * one machine learn a single policy together.  The threads of one worker
+ * share a single connection.
+ *
+ * Arguments: server port, episodes per thread, threads, footmen per side,
+ * seed, then agent arguments that override the server's.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class ParameterWorker {
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 5) {
+			System.err.println("Usage: ParameterWorker <port> <episodes per thread> <threads> <footmen> <seed> [agent arguments]...");
+			return;
+		}
+		int port = Integer.parseInt(args[0]);
+		int threads = Integer.parseInt(args[2]);
+		final int footmen = Integer.parseInt(args[3]);
+		final long seed = Long.parseLong(args[4]);
+		String[] arguments = new String[args.length - 3];
+		arguments[0] = args[1];
+		arguments[1] = "seed=" + seed;
+		System.arraycopy(args, 5, arguments, 2, args.length - 5);
+
+		final int size = Math.max(footmen, 16);
+		RemoteWeights weights = RemoteWeights.connect(port);
+		long start = System.nanoTime();
+		int played;
+		//a failure to disconnect is suppressed by the one that stopped training
+		try(RemoteWeights connection = weights) {
+			String[] merged = connection.withHyperparameters(arguments);
+			connection.setPushEvery(AgentConfig.parse(merged).getPushEvery());
+			ParallelTrainer trainer = new ParallelTrainer(threads, merged, connection,
+					worker -> new CombatSimulator(size, size, footmen, seed + worker));
+			played = trainer.train();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println("Episodes played: " + played + " in " + seconds + "s, " + weights.getPushes() + " pushes, "
+				+ weights.getRejected() + " dropped as stale");
+		System.out.println("Weights: " + Arrays.toString(weights.snapshot()));
+	}
+}
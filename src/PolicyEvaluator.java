@@ -0,0 +1,253 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how well a set of weights plays, on several threads, and stops
+ * as soon as the 95% confidence interval of the mean reward is narrow
+ * enough.  Every thread plays frozen episodes against the headless
+ * simulator, episode k always being the battle seeded with seed + k.  The
+ * stopping rule is only applied to the episodes in index order, so the
+ * result does not depend on the number of threads or on which thread
+ * finishes first; episodes a thread already started past the stopping
+ * point are thrown away.
+ *
+ * Arguments: checkpoint file, threads, footmen per side, seed, then
+ * optionally the precision (the largest half width of the confidence
+ * interval relative to the mean, default 0.05), the minimum and maximum
+ * number of episodes (default 10 and 1000) and agent arguments such as
+ * "features=CLASS".  One JSON line is printed and the agents' own console
+ * output is discarded.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class PolicyEvaluator {
+
+	private static final double Z = 1.96;
+
+	private final int threads;
+	private final int footmen;
+	private final long seed;
+	private final double precision;
+	private final int minEpisodes;
+	private final int maxEpisodes;
+
+	/**
+	 * the outcome of one evaluation
+	 */
+	public static class Result {
+		private final int episodes;
+		private final double mean;
+		private final double variance;
+		private final double halfWidth;
+		private final double winRate;
+		private final int played;
+		private final double seconds;
+
+		Result(int episodes, double mean, double variance, double halfWidth, double winRate, int played, double seconds) {
+			this.episodes = episodes;
+			this.mean = mean;
+			this.variance = variance;
+			this.halfWidth = halfWidth;
+			this.winRate = winRate;
+			this.played = played;
+			this.seconds = seconds;
+		}
+
+		/**
+		 *
+		 * @return the number of episodes the statistics are over
+		 */
+		public int getEpisodes() {
+			return episodes;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		/**
+		 *
+		 * @return the sample variance of the episode rewards
+		 */
+		public double getVariance() {
+			return variance;
+		}
+
+		/**
+		 *
+		 * @return half the width of the 95% confidence interval of the mean
+		 */
+		public double getHalfWidth() {
+			return halfWidth;
+		}
+
+		public double getWinRate() {
+			return winRate;
+		}
+
+		public String toJson() {
+			return "{\"episodes\":" + episodes + ",\"mean\":" + mean + ",\"variance\":" + variance
+					+ ",\"halfWidth\":" + halfWidth + ",\"winRate\":" + winRate + ",\"episodesPlayed\":" + played
+					+ ",\"seconds\":" + seconds + "}";
+		}
+	}
+
+	/**
+	 * the episodes finished so far and the running statistics of the ones in index order
+	 */
+	private class Progress {
+		private final double[] rewards = new double[maxEpisodes];
+		private final boolean[] won = new boolean[maxEpisodes];
+		private final boolean[] finished = new boolean[maxEpisodes];
+		private int counted;
+		private int wins;
+		private double mean;
+		private double squaredDeviations;
+		private int played;
+		private volatile boolean stopped;
+
+		synchronized void finish(int episode, double reward, boolean win) {
+			played++;
+			rewards[episode] = reward;
+			won[episode] = win;
+			finished[episode] = true;
+			while(!stopped && counted < maxEpisodes && finished[counted]) {
+				//Welford's update
+				double value = rewards[counted];
+				wins += won[counted] ? 1 : 0;
+				counted++;
+				double delta = value - mean;
+				mean += delta / counted;
+				squaredDeviations += delta * (value - mean);
+				if(counted >= minEpisodes && halfWidth() <= precision * Math.max(1, Math.abs(mean))) {
+					stopped = true;
+				}
+			}
+			if(counted == maxEpisodes) {
+				stopped = true;
+			}
+		}
+
+		double variance() {
+			return counted > 1 ? squaredDeviations / (counted - 1) : 0;
+		}
+
+		double halfWidth() {
+			return counted > 1 ? Z * Math.sqrt(variance() / counted) : Double.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+	 *
+	 * @param threads - episodes played at once
+	 * @param footmen - footmen per side
+	 * @param seed - seed of the first battle
+	 * @param precision - the largest confidence interval half width, relative to the mean
+	 * @param minEpisodes - episodes played before the interval is trusted
+	 * @param maxEpisodes - episodes after which the evaluation stops either way
+	 */
+	public PolicyEvaluator(int threads, int footmen, long seed, double precision, int minEpisodes, int maxEpisodes) {
+		this.threads = Math.max(1, threads);
+		this.footmen = footmen;
+		this.seed = seed;
+		this.precision = precision;
+		this.maxEpisodes = Math.max(1, maxEpisodes);
+		this.minEpisodes = Math.max(2, Math.min(minEpisodes, this.maxEpisodes));
+	}
+
+	/**
+	 * plays the weights until the mean reward is known precisely enough
+	 * @param checkpoint - the weights to evaluate
+	 * @param arguments - agent arguments after the episode count
+	 * @return the statistics of the episodes up to the stopping point
+	 */
+	public Result evaluate(final WeightCheckpoint checkpoint, String... arguments) throws Exception {
+		final String[] agentArguments = new String[arguments.length + 2];
+		agentArguments[0] = Integer.toString(Integer.MAX_VALUE - 1);
+		agentArguments[1] = "frozen=true";
+		System.arraycopy(arguments, 0, agentArguments, 2, arguments.length);
+		final Progress progress = new Progress();
+		final AtomicInteger nextEpisode = new AtomicInteger();
+		final int size = Math.max(footmen, 16);
+
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> workers = new ArrayList<Future<?>>();
+			for(int i = 0; i < threads; i++) {
+				final int worker = i;
+				workers.add(pool.submit(() -> {
+					RLAgent agent = new RLAgent(0, AgentConfig.forWorker(agentArguments, worker), null, null, false);
+					try {
+						agent.restore(checkpoint);
+						int episode;
+						while(!progress.stopped && (episode = nextEpisode.getAndIncrement()) < maxEpisodes) {
+							CombatSimulator simulator = new CombatSimulator(size, size, footmen, seed + episode);
+							simulator.runEpisode(agent);
+							progress.finish(episode, agent.getEpisodeReward(), simulator.friendlyWon());
+						}
+						return null;
+					} finally {
+						agent.close();
+					}
+				}));
+			}
+			for(Future<?> worker : workers) {
+				worker.get();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		synchronized(progress) {
+			return new Result(progress.counted, progress.mean, progress.variance(), progress.halfWidth(),
+					(double)progress.wins / progress.counted, progress.played, seconds);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 4) {
+			System.err.println("Usage: PolicyEvaluator <checkpoint> <threads> <footmen> <seed> [precision] [min episodes] [max episodes] [agent arguments]...");
+			return;
+		}
+		int threads = Integer.parseInt(args[1]);
+		int footmen = Integer.parseInt(args[2]);
+		long seed = Long.parseLong(args[3]);
+		double precision = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+		int minEpisodes = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+		int maxEpisodes = args.length > 6 ? Integer.parseInt(args[6]) : 1000;
+		String[] arguments = new String[Math.max(0, args.length - 7)];
+		System.arraycopy(args, args.length - arguments.length, arguments, 0, arguments.length);
+
+		String[] withEpisodes = new String[arguments.length + 1];
+		withEpisodes[0] = "0";
+		System.arraycopy(arguments, 0, withEpisodes, 1, arguments.length);
+		int numFeatures = AgentConfig.parse(withEpisodes).createFeatures().getNumFeatures();
+		WeightCheckpoint checkpoint;
+		try(InputStream in = new FileInputStream(args[0])) {
+			checkpoint = WeightCheckpoint.read(in, numFeatures);
+		} catch(IOException e) {
+			throw new IllegalStateException("Could not read checkpoint " + args[0], e);
+		}
+
+		PrintStream results = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		PolicyEvaluator evaluator = new PolicyEvaluator(threads, footmen, seed, precision, minEpisodes, maxEpisodes);
+		results.println(evaluator.evaluate(checkpoint, arguments).toJson());
+	}
+}
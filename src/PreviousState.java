@@ -4,187 +4,245 @@ import java.util.HashMap;
 
 public class PreviousState {
 
-	private ArrayList<Integer> footmanIds = new ArrayList<Integer>();
-	private HashMap<Integer, Integer> footmanHP = new HashMap<Integer, Integer>();
-	private HashMap<Integer, Point> footmanLocs = new HashMap<Integer, Point>();
-	private HashMap<Integer, Integer> footmanAttack = new HashMap<Integer, Integer>();
-	private ArrayList<Integer> toRemoveFootman = new ArrayList<Integer>();
-	
-	private ArrayList<Integer> enemyIds = new ArrayList<Integer>();
-	private HashMap<Integer, Integer> enemyHP = new HashMap<Integer, Integer>();
-	private HashMap<Integer, Point> enemyLocs = new HashMap<Integer, Point>();
-	private ArrayList<Integer> toRemoveEnemy = new ArrayList<Integer>();
-	
+	private final UnitTable footmen;
+	private final UnitTable enemies;
+	private final AttackerIndex attackers = new AttackerIndex();
+
+	public PreviousState(int numFootmen, int numEnemies) {
+		footmen = new UnitTable(numFootmen);
+		enemies = new UnitTable(numEnemies);
+	}
+
 	public PreviousState(ArrayList<Integer> footmanIds, HashMap<Integer, Integer> footmanHP,
 			HashMap<Integer, Point> footmanLocs, HashMap<Integer, Integer> footmanAttack,
 			ArrayList<Integer> enemyIds, HashMap<Integer, Integer> enemyHP, HashMap<Integer, Point> enemyLocs) {
+		this(footmanIds.size(), enemyIds.size());
 		for(Integer id : footmanIds) {
-			this.footmanIds.add(id);
-			this.footmanHP.put(id, footmanHP.get(id));
-			this.footmanLocs.put(id, footmanLocs.get(id));
-			this.footmanAttack.put(id, footmanAttack.get(id));
+			Point loc = footmanLocs.get(id);
+			addFootman(id, footmanHP.get(id), loc.x, loc.y, footmanAttack.get(id));
 		}
 		for(Integer id : enemyIds) {
-			this.enemyIds.add(id);
-			this.enemyHP.put(id, enemyHP.get(id));
-			this.enemyLocs.put(id, enemyLocs.get(id));
+			Point loc = enemyLocs.get(id);
+			addEnemy(id, enemyHP.get(id), loc.x, loc.y);
 		}
 	}
-	
+
+	public void addFootman(int id, int HP, int x, int y, int enemyId) {
+		int slot = footmen.slot(id);
+		if(slot != UnitTable.NONE) {
+			attackers.remove(footmen.target(slot));
+		}
+		footmen.add(id, HP, x, y, enemyId);
+		attackers.add(enemyId);
+	}
+
+	public void addEnemy(int id, int HP, int x, int y) {
+		enemies.add(id, HP, x, y, UnitTable.NONE);
+	}
+
+	/**
+	 * empties both sides so the arrays can be reused for the next episode
+	 */
+	public void clear() {
+		footmen.clear();
+		enemies.clear();
+		attackers.clear();
+	}
+
+	/**
+	 *
+	 * @return the dense store of footmen, iterate it by slot to avoid boxing
+	 */
+	public UnitTable getFootmen() {
+		return footmen;
+	}
+
+	/**
+	 *
+	 * @return the dense store of enemies, iterate it by slot to avoid boxing
+	 */
+	public UnitTable getEnemies() {
+		return enemies;
+	}
+
 	public ArrayList<Integer> getFootmanIds() {
-		return footmanIds;
+		return liveIds(footmen);
 	}
-	
+
 	public ArrayList<Integer> getEnemyIds() {
-		return enemyIds;
+		return liveIds(enemies);
+	}
+
+	private static ArrayList<Integer> liveIds(UnitTable table) {
+		ArrayList<Integer> ids = new ArrayList<Integer>(table.liveCount());
+		for(int s = table.first(); s >= 0; s = table.next(s)) {
+			ids.add(table.id(s));
+		}
+		return ids;
 	}
 
 	/**
-	 * 
+	 *
 	 * @param id - ID of the footman whose HP has changed.
 	 * @param HP - The new HP.
 	 */
 	public void setFootmanHP(int id, int HP) {
-		footmanHP.remove(id);
-		footmanHP.put(id, HP);
+		int slot = footmen.slot(id);
+		if(slot != UnitTable.NONE) {
+			footmen.setHP(slot, HP);
+		}
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @param id - The id of the footman you are concerned with.
-	 * @return null if the footman doesn't exist. The footman's HP if it does exist.
+	 * @return -1 if the footman doesn't exist. The footman's HP if it does exist.
 	 */
-	public Integer getFootmanHP(int id) {
-		return footmanHP.get(id);
+	public int getFootmanHP(int id) {
+		int slot = footmen.slot(id);
+		return slot == UnitTable.NONE ? UnitTable.NONE : footmen.hp(slot);
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @param id - ID of the enemy whose HP has changed.
 	 * @param HP - The new HP.
 	 */
 	public void setEnemyHP(int id, int HP) {
-		enemyHP.remove(id);
-		enemyHP.put(id, HP);
+		int slot = enemies.slot(id);
+		if(slot != UnitTable.NONE) {
+			enemies.setHP(slot, HP);
+		}
 	}
 
 	/**
-	 * 
+	 *
 	 * @param id - ID of the enemy you are concerned with.
-	 * @return null if the enemy doesn't exist. The enemy's HP if it does exist.
+	 * @return -1 if the enemy doesn't exist. The enemy's HP if it does exist.
 	 */
-	public Integer getEnemyHP(int id) {
-		return enemyHP.get(id);
+	public int getEnemyHP(int id) {
+		int slot = enemies.slot(id);
+		return slot == UnitTable.NONE ? UnitTable.NONE : enemies.hp(slot);
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @param id - ID of the footman whose location has changed.
-	 * @param location - the new location
+	 * @param x - the new x position
+	 * @param y - the new y position
 	 */
+	public void setFootmanLoc(int id, int x, int y) {
+		int slot = footmen.slot(id);
+		if(slot != UnitTable.NONE) {
+			footmen.setLoc(slot, x, y);
+		}
+	}
+
 	public void setFootmanLoc(int id, Point location) {
-		footmanLocs.remove(id);
-		footmanLocs.put(id, location);
+		setFootmanLoc(id, location.x, location.y);
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @param id - ID of the footman you are concerned with.
 	 * @return null if the footman doesn't exist. The footman's location if it does exist.
 	 */
 	public Point getFootmanLoc(int id) {
-		return footmanLocs.get(id);
+		int slot = footmen.slot(id);
+		return slot == UnitTable.NONE ? null : new Point(footmen.x(slot), footmen.y(slot));
+	}
+
+	public int getFootmanX(int id) {
+		return footmen.x(footmen.slot(id));
+	}
+
+	public int getFootmanY(int id) {
+		return footmen.y(footmen.slot(id));
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @param id - ID of the enemy whose location has changed.
-	 * @param location - the new location
+	 * @param x - the new x position
+	 * @param y - the new y position
 	 */
+	public void setEnemyLoc(int id, int x, int y) {
+		int slot = enemies.slot(id);
+		if(slot != UnitTable.NONE) {
+			enemies.setLoc(slot, x, y);
+		}
+	}
+
 	public void setEnemyLoc(int id, Point location) {
-		enemyLocs.remove(id);
-		enemyLocs.put(id, location);
+		setEnemyLoc(id, location.x, location.y);
 	}
+
 	/**
-	 * 
+	 *
 	 * @param id - ID of the enemy you are concerned with.
 	 * @return null if the enemy doesn't exist. The enemy's location if it does exist.
 	 */
 	public Point getEnemyLoc(int id) {
-		return enemyLocs.get(id);
+		int slot = enemies.slot(id);
+		return slot == UnitTable.NONE ? null : new Point(enemies.x(slot), enemies.y(slot));
+	}
+
+	public int getEnemyX(int id) {
+		return enemies.x(enemies.slot(id));
+	}
+
+	public int getEnemyY(int id) {
+		return enemies.y(enemies.slot(id));
 	}
 
 	/**
-	 * 
+	 *
 	 * @param footmanId - ID of the footman who is attacking
 	 * @param enemyId - ID of the enemy being attacked
 	 */
 	public void setFootmanAttack(int footmanId, int enemyId) {
-		footmanAttack.remove(footmanId);
-		footmanAttack.put(footmanId, enemyId);
+		int slot = footmen.slot(footmanId);
+		if(slot != UnitTable.NONE) {
+			attackers.move(footmen.target(slot), enemyId);
+			footmen.setTarget(slot, enemyId);
+		}
 	}
 
 	/**
-	 * 
+	 *
 	 * @param id - The id of the footman you are concerned with.
-	 * @return null if the footman doesn't exist. The id of the enemy that that footman was attacking if it does exist.
+	 * @return -1 if the footman doesn't exist. The id of the enemy that that footman was attacking if it does exist.
 	 */
-	public Integer getFootmanAttack(int id) {
-		return footmanAttack.get(id);
+	public int getFootmanAttack(int id) {
+		int slot = footmen.slot(id);
+		return slot == UnitTable.NONE ? UnitTable.NONE : footmen.target(slot);
 	}
-	
+
 	public void markFootmanForRemoval(int id) {
-		if(!toRemoveFootman.contains(id)) {
-			toRemoveFootman.add(id);
-		}
+		footmen.mark(id);
 	}
-	
+
 	public void removeMarkedFootman() {
-		for(Integer id : toRemoveFootman) {
-			if(footmanIds.contains(id)) {
-				footmanIds.remove(id);
-			}
-			if(footmanHP.containsKey(id)) {
-				footmanHP.remove(id);
-			}
-			if(footmanAttack.containsKey(id)) {
-				footmanAttack.remove(id);
-			}
-			if(footmanLocs.containsKey(id)) {
-				footmanLocs.remove(id);
-			}
+		for(int s = footmen.firstMarked(); s >= 0; s = footmen.nextMarked(s)) {
+			attackers.remove(footmen.target(s));
 		}
-		toRemoveFootman = new ArrayList<Integer>();
+		footmen.removeMarked();
 	}
-	
+
 	public void markEnemyForRemoval(int id) {
-		if(!toRemoveEnemy.contains(id)) {
-			toRemoveEnemy.add(id);			
-		}
+		enemies.mark(id);
 	}
-	
+
 	public void removeMarkedEnemy() {
-		for(Integer id : toRemoveEnemy) {
-			if(enemyIds.contains(id)) {
-				enemyIds.remove(id);
-			}
-			if(enemyHP.containsKey(id)) {
-				enemyHP.remove(id);
-			}
-			if(enemyLocs.containsKey(id)) {
-				enemyLocs.remove(id);
-			}
-		}
-		toRemoveEnemy = new ArrayList<Integer>();
+		enemies.removeMarked();
 	}
 
+	/**
+	 * 
+	 * @param enemyId - ID of the enemy you are concerned with.
+	 * @return the number of footmen whose last attack was on enemyId
+	 */
 	public int getNumAttackers(int enemyId) {
-		int numAttackers = 0;
-		for(int id : footmanAttack.values()) {
-			if(id == enemyId) {
-				numAttackers++;
-			}
-		}
-		return numAttackers;
+		return attackers.get(enemyId);
 	}
 }
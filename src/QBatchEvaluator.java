@@ -0,0 +1,392 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates the linear Q function for every (footman, enemy) pair at once.
+ * The state is read into flat primitive arrays a single time per step, the
+ * terms the FeatureExtractor says only depend on the footman or only on the
+ * enemy are computed once per unit, and only the pair features are
+ * evaluated per pair.
+ *
+ * The enemy terms include the attacker count, which changes as footmen are
+ * assigned, so they are left out of the matrix and added back in
+ * {@link #argmax}.  Call {@link #attackersChanged} after each assignment.
+ *
+ * With a ForkJoinPool the matrix rows are filled in parallel, and each
+ * row's best target is guessed from the attacker counts at the start of
+ * the step.  {@link #commit} then walks the footmen in order and keeps a
+ * guess only if no enemy whose term changed since could displace it,
+ * otherwise it scans the row again.  The result is always the same as the
+ * sequential {@link #argmax(int)}.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class QBatchEvaluator {
+
+	private final FeatureExtractor features;
+
+	private int numFootmen;
+	private int[] footIds = new int[0];
+	private int[] footX = new int[0];
+	private int[] footY = new int[0];
+	private int[] footHP = new int[0];
+	private double[] footTerm = new double[0];
+
+	private int numEnemies;
+	private int[] enemyIds = new int[0];
+	private int[] enemyX = new int[0];
+	private int[] enemyY = new int[0];
+	private int[] enemyHP = new int[0];
+	private double[] enemyTerm = new double[0];
+
+	private int[] enemyIndexOf = new int[0];
+
+	private double[] qValues = new double[0];
+	private double[] weights;
+
+	private static final int PARALLEL_THRESHOLD = 4096;
+	private int[] guess = new int[0];
+	private double[] initialTerm = new double[0];
+	private boolean[] increased = new boolean[0];
+	private int[] increasedIndices = new int[0];
+	private int numIncreased;
+	private boolean guessed;
+
+	public QBatchEvaluator(FeatureExtractor features) {
+		this.features = features;
+	}
+
+	/**
+	 * reads the footmen and enemies out of the state view
+	 * @param state
+	 * @param footmanIds - the footmen, in the order decisions will be made
+	 * @param enemyIds - the candidate targets
+	 */
+	public void load(CombatView state, List<Integer> footmanIds, List<Integer> enemyIds) {
+		numFootmen = footmanIds.size();
+		if(footIds.length < numFootmen) {
+			footIds = new int[numFootmen];
+			footX = new int[numFootmen];
+			footY = new int[numFootmen];
+			footHP = new int[numFootmen];
+			footTerm = new double[numFootmen];
+		}
+		for(int i = 0; i < numFootmen; i++) {
+			int id = footmanIds.get(i);
+			footIds[i] = id;
+			footX[i] = state.getXPosition(id);
+			footY[i] = state.getYPosition(id);
+			footHP[i] = state.getHP(id);
+		}
+
+		numEnemies = enemyIds.size();
+		if(this.enemyIds.length < numEnemies) {
+			this.enemyIds = new int[numEnemies];
+			enemyX = new int[numEnemies];
+			enemyY = new int[numEnemies];
+			enemyHP = new int[numEnemies];
+			enemyTerm = new double[numEnemies];
+		}
+		for(int j = 0; j < numEnemies; j++) {
+			int id = enemyIds.get(j);
+			if(id >= enemyIndexOf.length) {
+				enemyIndexOf = new int[Math.max(id + 1, enemyIndexOf.length * 2)];
+			}
+			enemyIndexOf[id] = j;
+			this.enemyIds[j] = id;
+			enemyX[j] = state.getXPosition(id);
+			enemyY[j] = state.getYPosition(id);
+			enemyHP[j] = state.getHP(id);
+		}
+	}
+
+	/**
+	 * fills the Q matrix for every pair, without the enemy terms
+	 * @param weights - the current weights of the Q function
+	 * @param attackers - footmen assigned so far this step
+	 */
+	public void evaluate(double[] weights, AttackerIndex attackers) {
+		prepare(weights, attackers);
+		if(qValues.length < numFootmen * numEnemies) {
+			qValues = new double[numFootmen * numEnemies];
+		}
+		fillRows(0, numFootmen);
+	}
+
+	/**
+	 * fills the Q matrix in parallel and guesses every footman's target from
+	 * the current attacker counts, targets are then taken with {@link #commit}
+	 * @param weights - the current weights of the Q function
+	 * @param attackers - footmen assigned so far this step
+	 * @param pool - the pool the rows are spread over
+	 */
+	public void evaluate(double[] weights, AttackerIndex attackers, ForkJoinPool pool) {
+		prepare(weights, attackers);
+		if(qValues.length < numFootmen * numEnemies) {
+			qValues = new double[numFootmen * numEnemies];
+		}
+		if(guess.length < numFootmen) {
+			guess = new int[numFootmen];
+		}
+		if(initialTerm.length < numEnemies) {
+			initialTerm = new double[numEnemies];
+			increased = new boolean[numEnemies];
+			increasedIndices = new int[numEnemies];
+		}
+		System.arraycopy(enemyTerm, 0, initialTerm, 0, numEnemies);
+		for(int k = 0; k < numIncreased; k++) {
+			increased[increasedIndices[k]] = false;
+		}
+		numIncreased = 0;
+		guessed = true;
+
+		RowTask task = new RowTask(0, numFootmen);
+		if((long)numFootmen * numEnemies < PARALLEL_THRESHOLD) {
+			task.compute();
+		} else {
+			pool.invoke(task);
+		}
+	}
+
+	/**
+	 * fills and guesses a range of rows, splitting it while it is large
+	 */
+	private class RowTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+
+		RowTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > 1 && (long)(to - from) * numEnemies > PARALLEL_THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RowTask(from, middle), new RowTask(middle, to));
+				return;
+			}
+			fillRows(from, to);
+			for(int i = from; i < to; i++) {
+				guess[i] = argmax(i);
+			}
+		}
+	}
+
+	private void fillRows(int from, int to) {
+		for(int i = from; i < to; i++) {
+			int row = i * numEnemies;
+			int x = footX[i];
+			int y = footY[i];
+			double base = footTerm[i];
+			for(int j = 0; j < numEnemies; j++) {
+				qValues[row + j] = base + features.pairTerm(weights, x, y, enemyX[j], enemyY[j]);
+			}
+		}
+	}
+
+	/**
+	 * the target of a footman after the footmen before it have been assigned,
+	 * only valid after {@link #evaluate(double[], AttackerIndex, ForkJoinPool)}
+	 * @param footIndex - index of the footman in the loaded order
+	 * @return the same index {@link #argmax(int)} would return
+	 */
+	public int commit(int footIndex) {
+		int best = guess[footIndex];
+		if(best < 0) {
+			return best;
+		}
+		if(enemyTerm[best] != initialTerm[best]) {
+			return argmax(footIndex);
+		}
+		int row = footIndex * numEnemies;
+		double maxQValue = qValues[row + best] + enemyTerm[best];
+		for(int k = 0; k < numIncreased; k++) {
+			int j = increasedIndices[k];
+			double qValue = qValues[row + j] + enemyTerm[j];
+			if(qValue > maxQValue || (qValue == maxQValue && j < best)) {
+				return argmax(footIndex);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * computes the per footman and per enemy terms without filling the matrix,
+	 * enough for {@link #argmax(int, int[], int)}
+	 * @param weights - the current weights of the Q function
+	 * @param attackers - footmen assigned so far this step
+	 */
+	public void prepare(double[] weights, AttackerIndex attackers) {
+		this.weights = weights;
+		guessed = false;
+		for(int i = 0; i < numFootmen; i++) {
+			footTerm[i] = features.footmanTerm(weights, footX[i], footY[i], footHP[i]);
+		}
+		for(int j = 0; j < numEnemies; j++) {
+			enemyTerm[j] = features.enemyTerm(weights, enemyX[j], enemyY[j], enemyHP[j], attackers.get(enemyIds[j]));
+		}
+	}
+
+	/**
+	 * refreshes the cached enemy term of an enemy whose attacker count changed
+	 * @param enemyId - the enemy, ignored if it was not loaded
+	 * @param attackers - footmen assigned so far this step
+	 */
+	public void attackersChanged(int enemyId, AttackerIndex attackers) {
+		if(enemyId < 0 || enemyId >= enemyIndexOf.length) {
+			return;
+		}
+		int j = enemyIndexOf[enemyId];
+		if(j < numEnemies && enemyIds[j] == enemyId) {
+			enemyTerm[j] = features.enemyTerm(weights, enemyX[j], enemyY[j], enemyHP[j], attackers.get(enemyId));
+			//an enemy that became more attractive could displace a guessed target
+			if(guessed && enemyTerm[j] > initialTerm[j] && !increased[j]) {
+				increased[j] = true;
+				increasedIndices[numIncreased++] = j;
+			}
+		}
+	}
+
+	/**
+	 * finds the best target among a subset of the enemies, only needs {@link #prepare}
+	 * @param footIndex - index of the footman in the loaded order
+	 * @param candidateIds - ids of the enemies to consider, ids that were not loaded are skipped
+	 * @param numCandidates - number of ids in candidateIds
+	 * @return the index of the enemy with the highest Q value, or -1 if there are no candidates
+	 */
+	public int argmax(int footIndex, int[] candidateIds, int numCandidates) {
+		int x = footX[footIndex];
+		int y = footY[footIndex];
+		double base = footTerm[footIndex];
+		int best = -1;
+		double maxQValue = Double.NEGATIVE_INFINITY;
+		for(int c = 0; c < numCandidates; c++) {
+			int id = candidateIds[c];
+			if(id < 0 || id >= enemyIndexOf.length) {
+				continue;
+			}
+			int j = enemyIndexOf[id];
+			//the index may be left over from an enemy that is gone
+			if(j >= numEnemies || enemyIds[j] != id) {
+				continue;
+			}
+			double qValue = base + features.pairTerm(weights, x, y, enemyX[j], enemyY[j]) + enemyTerm[j];
+			if(qValue > maxQValue || (qValue == maxQValue && j < best)) {
+				maxQValue = qValue;
+				best = j;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * finds the best target among all enemies without the matrix, only needs {@link #prepare}
+	 * @param footIndex - index of the footman in the loaded order
+	 * @return the same index {@link #argmax(int)} would return
+	 */
+	public int scan(int footIndex) {
+		int x = footX[footIndex];
+		int y = footY[footIndex];
+		double base = footTerm[footIndex];
+		int best = -1;
+		double maxQValue = Double.NEGATIVE_INFINITY;
+		for(int j = 0; j < numEnemies; j++) {
+			double qValue = base + features.pairTerm(weights, x, y, enemyX[j], enemyY[j]) + enemyTerm[j];
+			if(qValue > maxQValue) {
+				maxQValue = qValue;
+				best = j;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 *
+	 * @param footIndex - index of the footman in the loaded order
+	 * @return the index of the enemy with the highest Q value, or -1 if there are no enemies
+	 */
+	public int argmax(int footIndex) {
+		int row = footIndex * numEnemies;
+		int best = -1;
+		double maxQValue = Double.NEGATIVE_INFINITY;
+		for(int j = 0; j < numEnemies; j++) {
+			double qValue = qValues[row + j] + enemyTerm[j];
+			if(qValue > maxQValue) {
+				maxQValue = qValue;
+				best = j;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 *
+	 * @return the Q value of the pair with the current attacker counts
+	 */
+	public double qValue(int footIndex, int enemyIndex) {
+		return footTerm[footIndex] + features.pairTerm(weights, footX[footIndex], footY[footIndex], enemyX[enemyIndex], enemyY[enemyIndex])
+				+ enemyTerm[enemyIndex];
+	}
+
+	/**
+	 *
+	 * @return the footman and pair terms of a pair, only valid after an evaluate
+	 */
+	public double matrixValue(int footIndex, int enemyIndex) {
+		return qValues[footIndex * numEnemies + enemyIndex];
+	}
+
+	/**
+	 *
+	 * @return the enemy term of an enemy if it had the given number of attackers
+	 */
+	public double enemyTerm(int enemyIndex, int numAttackers) {
+		return features.enemyTerm(weights, enemyX[enemyIndex], enemyY[enemyIndex], enemyHP[enemyIndex], numAttackers);
+	}
+
+	public int getNumFootmen() {
+		return numFootmen;
+	}
+
+	public int getNumEnemies() {
+		return numEnemies;
+	}
+
+	public int footmanId(int footIndex) {
+		return footIds[footIndex];
+	}
+
+	public int footmanX(int footIndex) {
+		return footX[footIndex];
+	}
+
+	public int footmanY(int footIndex) {
+		return footY[footIndex];
+	}
+
+	public int footmanHP(int footIndex) {
+		return footHP[footIndex];
+	}
+
+	public int enemyId(int enemyIndex) {
+		return enemyIds[enemyIndex];
+	}
+
+	public int enemyX(int enemyIndex) {
+		return enemyX[enemyIndex];
+	}
+
+	public int enemyY(int enemyIndex) {
+		return enemyY[enemyIndex];
+	}
+
+	public int enemyHP(int enemyIndex) {
+		return enemyHP[enemyIndex];
+	}
+}
@@ -18,13 +18,16 @@
     along with SEPIA.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.awt.Point;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,7 +37,6 @@ import edu.cwru.sepia.action.TargetedAction;
 import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.environment.model.history.History;
 import edu.cwru.sepia.environment.model.state.State.StateView;
-import edu.cwru.sepia.environment.model.state.Unit.UnitView;
 
 /**
  * @author Derrick Tilsner
@@ -45,265 +47,747 @@ public class RLAgent extends Agent {
 	private static final long serialVersionUID = -4047208702628325380L;
 	private static final Logger logger = Logger.getLogger(RLAgent.class.getCanonicalName());
 
-	//changed the DISCOUNTING_FACTOR from .9 to .7
-	//changed the EPSILON from .02 to .01
-	private static final double DISCOUNTING_FACTOR = 0.9;
-	private static final double LEARNING_RATE = 0.0001;
-	private static final int NUMBER_OF_FEATURES = 7;
-	private static final double EPSILON = 0.02;
-	private static int targetEpisodes;
-	private static int numEpisodes;
-	
-	StateView currentState;
+	private static final int GRID_CELL_SIZE = 4;
+	private final AgentConfig config;
+	private final double discountingFactor;
+	private volatile double learningRate;
+	private double epsilon;
+	private int targetEpisodes;
+	private int numEpisodes;
+	private final boolean exitWhenDone;
+	
+	CombatView currentState;
+	private final SepiaCombatView sepiaView = new SepiaCombatView();
 	private int step;
 	
 	private PreviousState prevState;
-	private ArrayList<Integer> footmanIds;
-	private ArrayList<Integer> enemyIds;
+	private final ArrayList<Integer> footmanIds = new ArrayList<Integer>();
+	private final ArrayList<Integer> enemyIds = new ArrayList<Integer>();
+	private final Map<Integer, Action> actions = new HashMap<Integer, Action>();
 	
 	private double weights[];
+	private final SharedWeights sharedWeights;
+	private final RemoteWeights remoteWeights;
+	private final double stepStartWeights[];
 	private boolean firstStep;
 	private double cumulativeReward;
 	private double totalCumulativeReward;
-	private ArrayList<Integer> enemyTargets;
+	private double evaluationReward;
+	private int numEvaluations;
+	private final FeatureExtractor features;
+	private final int numFeatures;
+	private AttackerIndex enemyTargets = new AttackerIndex();
+	private QBatchEvaluator batch;
+	private boolean batchLoaded;
+	private StateDiff diff = new StateDiff();
+	private EnemyGrid enemyGrid = new EnemyGrid(GRID_CELL_SIZE);
+	private int nearestTargets;
+	private transient ForkJoinPool decidePool;
+	private final TargetAssigner assigner;
+	private final int assignCapacity;
+	private boolean[] assignedFirst = new boolean[0];
+	private final long stepBudgetNanos;
+	private long stepDeadline;
+	private double[] footmanRewards = new double[0];
+	private double[] targetRewards = new double[0];
+	private final ArrayList<Integer> scheduled = new ArrayList<Integer>();
+	private int lastReplanned;
+	private int lastCarriedOver;
+	private transient CheckpointFile checkpointFile;
+	private int checkpointInterval;
+	private transient AgentMetrics metrics;
+	private transient ReplayBuffer replay;
+	private final SplittableRandom replayRandom;
+	private transient TransitionQueue transitions;
+	private transient AsyncLearner learner;
+	private transient TraceWriter trace;
+	private final FeatureScaler scaler;
+	private final double stepDirection[];
+	private final double normTolerance;
+	private final double lambda;
+	private final boolean frozen;
+	private FrozenTables frozenTables;
+	private double eligibility[] = new double[0];
+	private int[] forcedTargets = new int[0];
+	private static final int UNFORCED = Integer.MIN_VALUE;
+	private int replayBatchSize;
+	private final SplittableRandom random;
+	private double prevFeatures[];
+	private double footFeatures[];
+	private double qFeatures[];
+	private double candidateFeatures[] = new double[0];
+	private int candidateTargets[] = new int[0];
+	private double replayPrevious[];
+	private double replayCandidates[];
 	
+	/**
+	 * creates the agent SEPIA runs, it exits the JVM once it has played all of its episodes
+	 * @param playernum
+	 * @param arguments
+	 */
 	public RLAgent(int playernum, String[] arguments) {
+		this(playernum, arguments, null, null, true);
+	}
+	
+	/**
+	 * creates an agent that learns into a weight vector shared with other agents
+	 * running in the same JVM, it will not exit the JVM once it is done
+	 * @param playernum
+	 * @param arguments
+	 * @param sharedWeights - the shared weights, null to learn alone
+	 */
+	public RLAgent(int playernum, String[] arguments, SharedWeights sharedWeights) {
+		this(playernum, arguments, sharedWeights, null, false);
+	}
+	
+	/**
+	 * creates an agent that draws its random numbers from the given stream, so agents
+	 * running concurrently can each be given their own stream split from one seed,
+	 * it will not exit the JVM once it is done
+	 * @param playernum
+	 * @param arguments
+	 * @param sharedWeights - the shared weights, null to learn alone
+	 * @param random - the random stream, null to create one from the seed argument
+	 */
+	public RLAgent(int playernum, String[] arguments, SharedWeights sharedWeights, SplittableRandom random) {
+		this(playernum, arguments, sharedWeights, random, false);
+	}
+	
+	/**
+	 * 
+	 * @param playernum
+	 * @param arguments
+	 * @param sharedWeights - the shared weights, null to learn alone
+	 * @param random - the random stream, null to create one from the seed argument
+	 * @param exitWhenDone - true to close the agent and exit the JVM once all episodes are played
+	 */
+	public RLAgent(int playernum, String[] arguments, SharedWeights sharedWeights, SplittableRandom random, boolean exitWhenDone) {
 		super(playernum);
+		this.exitWhenDone = exitWhenDone;
 		
-		if(arguments.length > 0 && Integer.parseInt(arguments[0]) > 0) {
-			targetEpisodes = Integer.parseInt(arguments[0]);
+		AgentConfig parsed = AgentConfig.parse(arguments);
+		if(sharedWeights == null && parsed.getParameterServer() > 0) {
+			try {
+				remoteWeights = RemoteWeights.connect(parsed.getParameterServer());
+			} catch(IOException e) {
+				throw new IllegalStateException("Could not reach the parameter server on port " + parsed.getParameterServer(), e);
+			}
+			sharedWeights = remoteWeights;
 		} else {
-			targetEpisodes = 200; //default
+			remoteWeights = null;
 		}
-		numEpisodes = 0;
+		try {
+			if(remoteWeights != null) {
+				//the server's arguments are read in before the agent's own
+				parsed = AgentConfig.parse(remoteWeights.withHyperparameters(arguments));
+				remoteWeights.setPushEvery(parsed.getPushEvery());
+			}
+			this.sharedWeights = sharedWeights;
+			config = parsed;
+			discountingFactor = config.getDiscount();
+			learningRate = config.getLearningRate(0);
+			epsilon = config.getEpsilon(0);
+			this.random = random != null ? random : config.createRandom();
+			replayRandom = this.random.split();
+			targetEpisodes = config.getTargetEpisodes();
+			numEpisodes = 0;
+			metrics = config.createMetrics();
+			nearestTargets = config.getNearestTargets();
+			if(config.getDecideThreads() > 0) {
+				decidePool = new ForkJoinPool(config.getDecideThreads());
+			}
+			assigner = config.getJointAssignment() ? new TargetAssigner() : null;
+			assignCapacity = config.getAssignCapacity();
+			stepBudgetNanos = config.getStepBudget() * 1000;
 		
-		weights = new double[NUMBER_OF_FEATURES];
-		for(int i = 0; i < weights.length; i++) {
-			weights[i] = Math.random() * 2 - 1;
+			features = config.createFeatures();
+			numFeatures = features.getNumFeatures();
+			if(sharedWeights != null && sharedWeights.length() != numFeatures) {
+				throw new IllegalArgumentException("The shared weights have " + sharedWeights.length() + " features, not " + numFeatures);
+			}
+			batch = new QBatchEvaluator(features);
+			prevFeatures = new double[numFeatures];
+			footFeatures = new double[numFeatures];
+			qFeatures = new double[numFeatures];
+			weights = new double[numFeatures];
+			stepStartWeights = new double[numFeatures];
+			scaler = config.getStandardize() ? new FeatureScaler(numFeatures, features.getBiasFeature()) : null;
+			stepDirection = new double[numFeatures];
+			normTolerance = config.getNormTolerance();
+			lambda = config.getLambda();
+			frozen = config.getFrozen();
+			if(frozen && sharedWeights != null) {
+				throw new IllegalArgumentException("frozen can't be used with shared weights");
+			}
+			if(sharedWeights != null) {
+				sharedWeights.copyTo(weights);
+			} else {
+				for(int i = 0; i < weights.length; i++) {
+					weights[i] = this.random.nextDouble() * 2 - 1;
+				}
+			}
+		
+			if(config.getReplayCapacity() > 0) {
+				replay = new ReplayBuffer(config.getReplayCapacity(), numFeatures, config.getReplayCandidates());
+				replayBatchSize = config.getReplayBatchSize();
+				replayPrevious = new double[numFeatures];
+				replayCandidates = new double[config.getReplayCandidates() * numFeatures];
+			}
+		
+			if(config.getAsyncCapacity() > 0) {
+				if(sharedWeights != null) {
+					throw new IllegalArgumentException("asyncLearner can't be used with shared weights");
+				}
+				if(lambda > 0) {
+					throw new IllegalArgumentException("asyncLearner can't be used with lambda");
+				}
+				if(frozen) {
+					throw new IllegalArgumentException("asyncLearner can't be used with frozen");
+				}
+				transitions = new TransitionQueue(config.getAsyncCapacity(), numFeatures, config.getReplayCandidates());
+				learner = new AsyncLearner(transitions, this::learnAndReplay, weights, config.getReplayCandidates());
+				weights = learner.getWeights();
+			}
+		
+			if(config.getTraceFile() != null) {
+				if(sharedWeights != null) {
+					throw new IllegalArgumentException("trace can't be used with shared weights");
+				}
+				try {
+					trace = new TraceWriter(config.getTraceFile());
+				} catch(IOException e) {
+					throw new IllegalStateException("Could not open trace " + config.getTraceFile(), e);
+				}
+			}
+		
+			if(config.getCheckpointFile() != null) {
+				//every agent sharing the weights would write the file, and restore only its own copy
+				if(sharedWeights != null) {
+					throw new IllegalArgumentException("checkpoint can't be used with shared weights");
+				}
+				checkpointInterval = config.getCheckpointInterval();
+				try {
+					checkpointFile = new CheckpointFile(config.getCheckpointFile(), numFeatures);
+					WeightCheckpoint checkpoint = checkpointFile.load();
+					if(checkpoint != null) {
+						restore(checkpoint);
+					}
+				} catch(IOException e) {
+					throw new IllegalStateException("Could not use checkpoint " + config.getCheckpointFile(), e);
+				}
+			}
+		} catch(RuntimeException e) {
+			//an agent that was never built is never closed, nothing else would disconnect it
+			if(remoteWeights != null) {
+				try {
+					remoteWeights.close();
+				} catch(IOException closeFailure) {
+					e.addSuppressed(closeFailure);
+				}
+			}
+			throw e;
 		}
 	}
 
 	
 	@Override
 	public Map<Integer, Action> initialStep(StateView newState, History.HistoryView statehistory) {
+		sepiaView.setState(newState);
+		return initialStep(sepiaView);
+	}
+
+	@Override
+	public Map<Integer, Action> middleStep(StateView newState, History.HistoryView statehistory) {
+		sepiaView.setState(newState);
+		return middleStep(sepiaView);
+	}
+
+	@Override
+	public void terminalStep(StateView newState, History.HistoryView statehistory) {
+		sepiaView.setState(newState);
+		terminalStep(sepiaView);
+	}
+	
+	public Map<Integer, Action> initialStep(CombatView newState) {
 		step = 0;
+		batchLoaded = false;
 		cumulativeReward = 0;
 		currentState = newState;
+		learningRate = config.getLearningRate(numEpisodes);
+		epsilon = frozen ? 0 : config.getEpsilon(numEpisodes);
+		if(sharedWeights != null) {
+			sharedWeights.copyTo(weights);
+		}
+		if(learner != null) {
+			learner.start();
+			weights = learner.getWeights();
+		}
 
 //		printWeights();
 		
 		//initialize previous state information
 		//friendly info
 		List<Integer> friendUnitIds = currentState.getUnitIds(0);
-		HashMap<Integer, Integer> friendHP = new HashMap<Integer, Integer>();
-		HashMap<Integer, Point> friendLocs = new HashMap<Integer, Point>();
-		footmanIds = new ArrayList<Integer>();
-		for(int i = 0; i < friendUnitIds.size(); i++) {
-			int id = friendUnitIds.get(i);
-			UnitView unit = currentState.getUnit(id);
-			footmanIds.add(id);
-			friendHP.put(id, unit.getHP());
-			Point footLoc = new Point(unit.getXPosition(), unit.getYPosition());
-			friendLocs.put(id, footLoc);
+		List<Integer> enemyUnitIds = currentState.getUnitIds(1);
+		prevState = new PreviousState(friendUnitIds.size(), enemyUnitIds.size());
+		copyIds(friendUnitIds, footmanIds);
+		for(int i = 0; i < footmanIds.size(); i++) {
+			int id = footmanIds.get(i);
+			prevState.addFootman(id, currentState.getHP(id), currentState.getXPosition(id), currentState.getYPosition(id), UnitTable.NONE);
+		}
+		if(lambda > 0) {
+			int length = prevState.getFootmen().capacity() * numFeatures;
+			if(eligibility.length < length) {
+				eligibility = new double[length];
+			}
+			Arrays.fill(eligibility, 0);
 		}
 		
 		//enemy info
-		List<Integer> enemyUnitIds = currentState.getUnitIds(1);
-		HashMap<Integer, Integer> enemyHP = new HashMap<Integer, Integer>();
-		HashMap<Integer, Point> enemyLocs = new HashMap<Integer, Point>();
-		enemyIds = new ArrayList<Integer>();
-		for(int i = 0; i < enemyUnitIds.size(); i++) {
-			int id = enemyUnitIds.get(i);
-			UnitView unit = currentState.getUnit(id);
-			enemyIds.add(id);
-			enemyHP.put(id, unit.getHP());
-			Point foeLoc = new Point(unit.getXPosition(),unit.getYPosition());
-			enemyLocs.put(id, foeLoc);
+		copyIds(enemyUnitIds, enemyIds);
+		enemyGrid.clear();
+		for(int i = 0; i < enemyIds.size(); i++) {
+			int id = enemyIds.get(i);
+			prevState.addEnemy(id, currentState.getHP(id), currentState.getXPosition(id), currentState.getYPosition(id));
+			enemyGrid.add(id, currentState.getXPosition(id), currentState.getYPosition(id));
+		}
+		if(frozen && features.isSeparable()) {
+			useFrozenTables();
 		}
 		
 		//initializing targets
-		enemyTargets = new ArrayList<Integer>();
-		HashMap<Integer, Integer> targets = new HashMap<Integer, Integer>();
-		for(int footId : footmanIds) {
-			double rndm = Math.random();
+		enemyTargets.clear();
+		UnitTable footmen = prevState.getFootmen();
+		UnitTable enemies = prevState.getEnemies();
+		for(int footSlot = footmen.first(); footSlot >= 0; footSlot = footmen.next(footSlot)) {
+			int footId = footmen.id(footSlot);
+			double rndm = random.nextDouble();
 			int targetId = -1;
-			if(rndm > 1 - EPSILON) {
-				targetId = enemyIds.get((int)(Math.random() * enemyIds.size()));
+			if(rndm > 1 - epsilon) {
+				targetId = enemyIds.get(random.nextInt(enemyIds.size()));
 			} else {
 				double maxQValue = Double.NEGATIVE_INFINITY;
-				Point friendLoc = friendLocs.get(footId);
-				int footHP = friendHP.get(footId);
-				for(int enemyId : enemyIds) {
+				for(int enemySlot = enemies.first(); enemySlot >= 0; enemySlot = enemies.next(enemySlot)) {
+					int enemyId = enemies.id(enemySlot);
 					int numAttackers = calculateNumAttackers(enemyId);
-					Point enemyLoc = enemyLocs.get(enemyId);
-					int foeHP = enemyHP.get(enemyId);
-					double qValue = calculateQFunction(footId, enemyLoc, friendLoc, foeHP, footHP, numAttackers);
+					double qValue = calculateQFunction(enemies.x(enemySlot), enemies.y(enemySlot),
+							footmen.x(footSlot), footmen.y(footSlot), enemies.hp(enemySlot), footmen.hp(footSlot), numAttackers);
 					if(qValue > maxQValue) {
 						maxQValue = qValue;
 						targetId = enemyId;
 					}
 				}
 			}
-			targets.put(footId, targetId);
+			targetId = forcedTarget(footId, targetId);
+			prevState.setFootmanAttack(footId, targetId);
 			firstStep = true;
 			enemyTargets.add(targetId);
 		}
 		
-		prevState = new PreviousState(footmanIds, friendHP, friendLocs, targets, enemyIds, enemyHP, enemyLocs);
-		
-		return middleStep(newState, statehistory);
+		if(trace != null) {
+			trace.beginEpisode(numEpisodes);
+			recordStep(0);
+		}
+		return middleStep(newState);
 	}
 
-	@Override
-	public Map<Integer, Action> middleStep(StateView newState, History.HistoryView statehistory) {
+	/**
+	 * The returned map is reused by the next step, so it has to be consumed before then.
+	 * Footmen whose target did not change are left out of it and keep their last order.
+	 */
+	public Map<Integer, Action> middleStep(CombatView newState) {
+		long start = metrics.startStep();
+		boolean event = nextStep(newState);
+		metrics.endStep(start, event);
+		return actions;
+	}
+
+	/**
+	 * fills the actions map for this step
+	 * @return true if an event happened and targets were chosen again
+	 */
+	private boolean nextStep(CombatView newState) {
+		if(stepBudgetNanos > 0) {
+			stepDeadline = System.nanoTime() + stepBudgetNanos;
+		}
 		step++;
 		currentState = newState;
 		if(logger.isLoggable(Level.FINE)) {
 			logger.fine("=> Step: " + step);
 		}
-		Map<Integer, Action> builder = new HashMap<Integer, Action>();
+		actions.clear();
 		
 		//if first step, just take action determined in init step
 		if(firstStep) {
 			firstStep = false;
-			for(int footId : footmanIds) {
+			for(int i = 0; i < footmanIds.size(); i++) {
+				Integer footId = footmanIds.get(i);
 				int targetId = prevState.getFootmanAttack(footId);
-				Action b = new TargetedAction(footId, ActionType.COMPOUNDATTACK, targetId);
-				builder.put(footId, b);
+				actions.put(footId, new TargetedAction(footId, ActionType.COMPOUNDATTACK, targetId));
 			}
-			return builder;
+			return true;
 		}
 		
-		//friendly info
-		List<Integer> friendUnitIds = currentState.getUnitIds(0);
-		footmanIds = new ArrayList<Integer>();
-		for(int i = 0; i < friendUnitIds.size(); i++) {
-			int id = friendUnitIds.get(i);
-			footmanIds.add(id);
-		}
-		
-		//enemy info
-		List<Integer> enemyUnitIds = currentState.getUnitIds(1);
-		enemyIds = new ArrayList<Integer>();
-		for(int i = 0; i < enemyUnitIds.size(); i++) {
-			int id = enemyUnitIds.get(i);
-			enemyIds.add(id);
-		}
+		//friendly and enemy info
+		copyIds(currentState.getUnitIds(0), footmanIds);
+		copyIds(currentState.getUnitIds(1), enemyIds);
 		
 		//determine if an event has occured
-		boolean noInjuries = true;
-		for(int id : prevState.getFootmanIds()) {
-			if(!currentState.getAllUnitIds().contains(id)
-					|| prevState.getFootmanHP(id) != currentState.getUnit(id).getHP()) {
-				noInjuries = false;
-				break;
-			}
-			
-			int enemyId = prevState.getFootmanAttack(id);
-			if(!currentState.getAllUnitIds().contains(enemyId)
-					|| prevState.getEnemyHP(enemyId) != currentState.getUnit(enemyId).getHP()) {
-				noInjuries = false;
-				break;
-			}
+		diff.capture(currentState, prevState);
+		if(!diff.hasInjuries()) {
+			return false;
 		}
 		
-		if(noInjuries) {
-			return builder;
+		boolean learning = isLearningEpisode();
+		if(sharedWeights != null) {
+			sharedWeights.copyTo(weights);
+			System.arraycopy(weights, 0, stepStartWeights, 0, weights.length);
+		}
+		if(learner != null) {
+			//pick targets with the latest weights the learner published
+			weights = learner.getWeights();
 		}
 		
 		//ANALYZE PHASE
-		enemyTargets = new ArrayList<Integer>();
-		for(int id : prevState.getFootmanIds()) {
-			double reward = 0.0;
-			if(!currentState.getAllUnitIds().contains(id)) {
-				//footman died
-				reward -= 100;
-				prevState.markFootmanForRemoval(id);
-			} else {
-				//footman was injured
-				reward -= prevState.getFootmanHP(id) - currentState.getUnit(id).getHP();
-			}
-			
-			int enemyId = prevState.getFootmanAttack(id);
-			if(!currentState.getAllUnitIds().contains(enemyId)) {
-				//enemy footman died
-				reward += 100;
-				prevState.markEnemyForRemoval(enemyId);
-			} else {
-				//enemy was injured
-				reward += prevState.getEnemyHP(enemyId) - currentState.getUnit(enemyId).getHP();
-			}
+		double stepReward = 0;
+		enemyTargets.clear();
+		UnitTable footmen = prevState.getFootmen();
+		UnitTable enemies = prevState.getEnemies();
+		collectEventRewards();
+		for(int footSlot = footmen.first(); footSlot >= 0; footSlot = footmen.next(footSlot)) {
+			double reward = footmanRewards[footSlot];
+			int enemySlot = enemies.slot(footmen.target(footSlot));
+			//a footman whose target is gone is rewarded as if it killed it
+			reward += enemySlot == UnitTable.NONE ? 100 : targetRewards[enemySlot];
 			reward -= 0.1;
-			if(numEpisodes % 10 < 5) {
-				updateQFunction(reward, id);
+			if(learning) {
+				updateQFunction(reward, footSlot);
 			}
 			cumulativeReward += reward;
+			stepReward += reward;
 		}
 		
+		clearEventRewards();
+		
+		if(sharedWeights != null && learning) {
+			sharedWeights.addDelta(stepStartWeights, weights);
+		}
 		updateStatusInfo();
 		//printWeights();
 		
 		//DECIDE PHASE
-		enemyTargets = new ArrayList<Integer>();
-		for(int footId : footmanIds) {
-			double rndm = Math.random();
+		enemyTargets.clear();
+		//with a deadline the most urgent footmen go first and rows are scored as they are reached
+		boolean scheduling = stepBudgetNanos > 0 && assigner == null;
+		int numUrgent = scheduling ? scheduleFootmen() : 0;
+		batch.load(currentState, footmanIds, enemyIds);
+		batchLoaded = true;
+		if(assigner != null) {
+			//every footman is planned, none are carried over
+			assignJointly(learning);
+			lastReplanned = batch.getNumFootmen();
+			lastCarriedOver = 0;
+			metrics.planned(lastReplanned, lastCarriedOver);
+			if(trace != null) {
+				recordStep(stepReward);
+			}
+			return true;
+		}
+		int replanned = 0;
+		int carriedOver = 0;
+		boolean pruned = usePruning();
+		boolean parallel = !pruned && !scheduling && decidePool != null;
+		if(pruned || scheduling) {
+			batch.prepare(weights, enemyTargets);
+		} else if(parallel) {
+			batch.evaluate(weights, enemyTargets, decidePool);
+		} else {
+			batch.evaluate(weights, enemyTargets);
+		}
+		for(int i = 0; i < batch.getNumFootmen(); i++) {
+			Integer footId = footmanIds.get(i);
+			if(scheduling && i >= numUrgent && System.nanoTime() > stepDeadline) {
+				//out of time, keep attacking the last target
+				int targetId = forcedTarget(footId, prevState.getFootmanAttack(footId));
+				enemyTargets.add(targetId);
+				batch.attackersChanged(targetId, enemyTargets);
+				if(prevState.getFootmanAttack(footId) != targetId) {
+					actions.put(footId, new TargetedAction(footId, ActionType.COMPOUNDATTACK, targetId));
+					prevState.setFootmanAttack(footId, targetId);
+				}
+				carriedOver++;
+				continue;
+			}
+			replanned++;
+			double rndm = random.nextDouble();
 			int targetId = -1;
-			if(rndm > 1 - EPSILON && numEpisodes % 10 < 5) {
-				targetId = enemyIds.get((int)(Math.random() * enemyIds.size()));
+			boolean explore = rndm > 1 - epsilon && learning;
+			metrics.decision(explore);
+			if(explore) {
+				targetId = enemyIds.get(random.nextInt(enemyIds.size()));
+				cutTrace(footId);
 			} else {
-				UnitView friendUnit = currentState.getUnit(footId);
-				Point friendLoc = new Point(friendUnit.getXPosition(), friendUnit.getYPosition());
-				int friendHP = friendUnit.getHP();
-				double maxQValue = Double.NEGATIVE_INFINITY;
-				for(int enemyId : enemyIds) {
-					int numAttackers = calculateNumAttackers(enemyId);
-					UnitView enemyUnit = currentState.getUnit(enemyId);
-					Point enemyLoc = new Point(enemyUnit.getXPosition(), enemyUnit.getYPosition());
-					int enemyHP = enemyUnit.getHP();
-					double qValue = calculateQFunction(footId, enemyLoc, friendLoc, enemyHP, friendHP, numAttackers);
-					if(qValue > maxQValue) {
-						maxQValue = qValue;
-						targetId = enemyId;
-					}
+				int best;
+				if(pruned) {
+					int numCandidates = enemyGrid.collectNearest(batch.footmanX(i), batch.footmanY(i), nearestTargets);
+					best = batch.argmax(i, enemyGrid.getFound(), numCandidates);
+				} else if(parallel) {
+					best = batch.commit(i);
+					assert best == batch.argmax(i);
+				} else if(scheduling) {
+					best = batch.scan(i);
+				} else {
+					best = batch.argmax(i);
+				}
+				if(best >= 0) {
+					assert matchesReference(i, best);
+					targetId = batch.enemyId(best);
 				}
 			}
+			targetId = forcedTarget(footId, targetId);
 			enemyTargets.add(targetId);
-			Action b = new TargetedAction(footId, ActionType.COMPOUNDATTACK, targetId);
-			builder.put(footId, b);
+			batch.attackersChanged(targetId, enemyTargets);
 			
-			prevState.setFootmanAttack(footId, targetId);
+			//only footmen with a new target need a new order
+			if(prevState.getFootmanAttack(footId) != targetId) {
+				actions.put(footId, new TargetedAction(footId, ActionType.COMPOUNDATTACK, targetId));
+				prevState.setFootmanAttack(footId, targetId);
+			}
+		}
+		lastReplanned = replanned;
+		lastCarriedOver = carriedOver;
+		metrics.planned(replanned, carriedOver);
+		
+		if(trace != null) {
+			recordStep(stepReward);
 		}
 		
 		//EXECUTE PHASE
-		return builder;
+		return true;
+	}
+	
+	/**
+	 * puts the footmen in the order they are planned in when there is a deadline: first those
+	 * without a live target, who have to be planned, then injured ones, then the rest
+	 * @return the number of footmen without a live target, all at the start of the list
+	 */
+	private int scheduleFootmen() {
+		UnitTable footmen = prevState.getFootmen();
+		scheduled.clear();
+		for(int i = 0; i < footmanIds.size(); i++) {
+			int target = prevState.getFootmanAttack(footmanIds.get(i));
+			if(target < 0 || !currentState.isAlive(target)) {
+				scheduled.add(footmanIds.get(i));
+			}
+		}
+		int numUrgent = scheduled.size();
+		for(int i = 0; i < footmanIds.size(); i++) {
+			int target = prevState.getFootmanAttack(footmanIds.get(i));
+			int slot = footmen.slot(footmanIds.get(i));
+			if(target >= 0 && currentState.isAlive(target) && slot != UnitTable.NONE && diff.footmanInjured(slot)) {
+				scheduled.add(footmanIds.get(i));
+			}
+		}
+		for(int i = 0; i < footmanIds.size(); i++) {
+			int target = prevState.getFootmanAttack(footmanIds.get(i));
+			int slot = footmen.slot(footmanIds.get(i));
+			if(target >= 0 && currentState.isAlive(target) && (slot == UnitTable.NONE || !diff.footmanInjured(slot))) {
+				scheduled.add(footmanIds.get(i));
+			}
+		}
+		copyIds(scheduled, footmanIds);
+		return numUrgent;
+	}
+	
+	/**
+	 * decides every footman's target jointly instead of one after another,
+	 * exploring and forced footmen are assigned first and the rest are solved around them
+	 * @param learning - true if footmen may explore
+	 */
+	private void assignJointly(boolean learning) {
+		int numFootmen = batch.getNumFootmen();
+		if(assignedFirst.length < numFootmen) {
+			assignedFirst = new boolean[numFootmen];
+		}
+		batch.evaluate(weights, enemyTargets);
+		for(int i = 0; i < numFootmen; i++) {
+			Integer footId = footmanIds.get(i);
+			double rndm = random.nextDouble();
+			boolean explore = rndm > 1 - epsilon && learning;
+			metrics.decision(explore);
+			int targetId = UNFORCED;
+			if(explore) {
+				targetId = enemyIds.get(random.nextInt(enemyIds.size()));
+				cutTrace(footId);
+			}
+			targetId = forcedTarget(footId, targetId);
+			assignedFirst[i] = targetId != UNFORCED;
+			if(assignedFirst[i]) {
+				setTarget(footId, targetId);
+			}
+		}
+		int[] assigned = assigner.assign(batch, assignedFirst, enemyTargets, assignCapacity);
+		for(int i = 0; i < numFootmen; i++) {
+			if(!assignedFirst[i]) {
+				setTarget(footmanIds.get(i), assigned[i] >= 0 ? batch.enemyId(assigned[i]) : -1);
+			}
+		}
+	}
+	
+	/**
+	 * scores pairs from lookup tables, built again only when the weights were replaced
+	 * or a unit of the new episode falls outside them
+	 */
+	private void useFrozenTables() {
+		int maxX = 0;
+		int maxY = 0;
+		int maxHP = 0;
+		boolean covered = frozenTables != null && frozenTables.isFor(weights);
+		for(int player = 0; player < 2; player++) {
+			List<Integer> ids = player == 0 ? footmanIds : enemyIds;
+			for(int i = 0; i < ids.size(); i++) {
+				int id = ids.get(i);
+				int x = currentState.getXPosition(id);
+				int y = currentState.getYPosition(id);
+				int hp = currentState.getHP(id);
+				maxX = Math.max(maxX, x);
+				maxY = Math.max(maxY, y);
+				maxHP = Math.max(maxHP, hp);
+				covered = covered && frozenTables.covers(x, y, hp);
+			}
+		}
+		if(!covered) {
+			frozenTables = new FrozenTables(features, weights, maxX + 1, maxY + 1, maxHP, footmanIds.size());
+			batch = new QBatchEvaluator(frozenTables);
+		}
+	}
+	
+	/**
+	 * forgets a footman's eligibility trace, the Q(lambda) update only follows greedy actions back
+	 */
+	private void cutTrace(int footmanId) {
+		if(lambda > 0) {
+			int slot = prevState.getFootmen().slot(footmanId);
+			if(slot != UnitTable.NONE) {
+				Arrays.fill(eligibility, slot * numFeatures, (slot + 1) * numFeatures, 0);
+			}
+		}
+	}
+	
+	/**
+	 * counts the footman as an attacker of its target and orders it to attack if the target is new
+	 */
+	private void setTarget(Integer footId, int targetId) {
+		enemyTargets.add(targetId);
+		batch.attackersChanged(targetId, enemyTargets);
+		if(prevState.getFootmanAttack(footId) != targetId) {
+			actions.put(footId, new TargetedAction(footId, ActionType.COMPOUNDATTACK, targetId));
+			prevState.setFootmanAttack(footId, targetId);
+		}
+	}
+	
+	/**
+	 * appends the units of the current state and their targets to the trace
+	 * @param reward - the reward collected this step
+	 */
+	private void recordStep(double reward) {
+		trace.beginStep(step, reward, footmanIds.size(), enemyIds.size());
+		for(int i = 0; i < footmanIds.size(); i++) {
+			int id = footmanIds.get(i);
+			trace.footman(id, currentState.getHP(id), currentState.getXPosition(id), currentState.getYPosition(id),
+					prevState.getFootmanAttack(id));
+		}
+		for(int i = 0; i < enemyIds.size(); i++) {
+			int id = enemyIds.get(i);
+			trace.enemy(id, currentState.getHP(id), currentState.getXPosition(id), currentState.getYPosition(id));
+		}
+	}
+	
+	/**
+	 * makes the next decision for a footman pick the given target, whatever the Q function says,
+	 * so a recorded game can be replayed exactly
+	 * @param footmanId
+	 * @param targetId - the target, -1 for none
+	 */
+	public void forceTarget(int footmanId, int targetId) {
+		if(footmanId >= forcedTargets.length) {
+			int oldLength = forcedTargets.length;
+			forcedTargets = Arrays.copyOf(forcedTargets, Math.max(footmanId + 1, oldLength * 2));
+			Arrays.fill(forcedTargets, oldLength, forcedTargets.length, UNFORCED);
+		}
+		forcedTargets[footmanId] = targetId;
+	}
+	
+	/**
+	 * lets the Q function decide for every footman again
+	 */
+	public void clearForcedTargets() {
+		Arrays.fill(forcedTargets, UNFORCED);
+	}
+	
+	/**
+	 * 
+	 * @return the forced target of the footman if there is one, otherwise chosen
+	 */
+	private int forcedTarget(int footmanId, int chosen) {
+		if(footmanId < forcedTargets.length && forcedTargets[footmanId] != UNFORCED) {
+			return forcedTargets[footmanId];
+		}
+		return chosen;
+	}
+	
+	/**
+	 * refills a reused id list without unboxing and reboxing the ids
+	 */
+	private static void copyIds(List<Integer> from, ArrayList<Integer> to) {
+		to.clear();
+		for(int i = 0; i < from.size(); i++) {
+			to.add(from.get(i));
+		}
 	}
 
-	@Override
-	public void terminalStep(StateView newstate, History.HistoryView statehistory) {
+	public void terminalStep(CombatView newState) {
 		step++;
 		if(logger.isLoggable(Level.FINE)) {
 			logger.fine("=> Step: " + step);
 		}
 		
+		metrics.episode(cumulativeReward);
+		if(trace != null) {
+			trace.endEpisode(cumulativeReward);
+		}
+		
 		//evaluation phase
-		if(numEpisodes % 10 > 5) {
+		int cycle = config.getCycle();
+		int evaluationEpisodes = frozen ? cycle : cycle - config.getLearnEpisodes();
+		if(!isLearningEpisode()) {
 			totalCumulativeReward += cumulativeReward;
 		}
 		//calculate average
-		if(numEpisodes % 10 == 9) {
-			System.out.println("Games played: " + (numEpisodes / 10) * 10);
-			System.out.println("Average reward: " + totalCumulativeReward / 5);
-		}
-		//learning phase
-		if(numEpisodes % 10 < 5) {
+		if(numEpisodes % cycle == cycle - 1) {
+			if(evaluationEpisodes > 0) {
+				evaluationReward = totalCumulativeReward / evaluationEpisodes;
+				numEvaluations++;
+				System.out.println("Games played: " + (numEpisodes / cycle) * cycle);
+				System.out.println("Average reward: " + evaluationReward);
+			}
 			totalCumulativeReward = 0;
 		}
 
-		if(numEpisodes == targetEpisodes) {
-			System.exit(0);
+		boolean done = numEpisodes == targetEpisodes;
+		numEpisodes++;
+		if(checkpointFile != null && !frozen && (numEpisodes % checkpointInterval == 0 || done)) {
+			try {
+				checkpointFile.save(checkpoint());
+			} catch(IOException e) {
+				logger.log(Level.WARNING, "Could not save checkpoint " + checkpointFile.getFile(), e);
+			}
 		}
 		
-		numEpisodes++;
+		if(done && exitWhenDone) {
+			close();
+			System.exit(0);
+		}
 		
 		
 		if(logger.isLoggable(Level.FINE)) {
@@ -312,160 +796,463 @@ public class RLAgent extends Agent {
 	}
 	
 	/**
-	 * updates all units' death, health, and location information in the previous state
+	 * stops the learner thread and the decide pool, pushes what the parameter server has not seen
+	 * yet and flushes the metrics and trace files
+	 */
+	public void close() {
+		if(learner != null) {
+			learner.close();
+		}
+		if(decidePool != null) {
+			decidePool.shutdown();
+			decidePool = null;
+		}
+		if(remoteWeights != null) {
+			try {
+				remoteWeights.close();
+			} catch(IOException e) {
+				logger.log(Level.WARNING, "Could not push the last updates", e);
+			}
+		}
+		metrics.close();
+		if(trace != null) {
+			try {
+				trace.close();
+			} catch(IOException e) {
+				logger.log(Level.WARNING, "Could not close trace", e);
+			}
+			trace = null;
+		}
+	}
+	
+	/**
+	 * turns this step's deaths and injuries into rewards by slot, what a footman lost itself
+	 * and what it gains from its target, and marks the dead, attacked or not, for removal
+	 */
+	private void collectEventRewards() {
+		UnitTable footmen = prevState.getFootmen();
+		UnitTable enemies = prevState.getEnemies();
+		if(footmanRewards.length < footmen.capacity()) {
+			footmanRewards = new double[footmen.capacity()];
+		}
+		if(targetRewards.length < enemies.capacity()) {
+			targetRewards = new double[enemies.capacity()];
+		}
+		for(int event = 0; event < diff.getNumEvents(); event++) {
+			int slot = diff.getEventSlot(event);
+			int type = diff.getEventType(event);
+			if(diff.getEventSide(event) == StateDiff.FOOTMAN) {
+				if(type == StateDiff.DIED) {
+					//footman died
+					footmanRewards[slot] = -100;
+					prevState.markFootmanForRemoval(footmen.id(slot));
+				} else if(type == StateDiff.HP_CHANGED) {
+					//footman was injured
+					footmanRewards[slot] = diff.footmanHP(slot) - footmen.hp(slot);
+				}
+			} else {
+				if(type == StateDiff.DIED) {
+					//enemy footman died
+					targetRewards[slot] = 100;
+					prevState.markEnemyForRemoval(enemies.id(slot));
+				} else if(type == StateDiff.HP_CHANGED) {
+					//enemy was injured
+					targetRewards[slot] = enemies.hp(slot) - diff.enemyHP(slot);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * zeroes the rewards of the slots this step's events wrote to
+	 */
+	private void clearEventRewards() {
+		for(int event = 0; event < diff.getNumEvents(); event++) {
+			if(diff.getEventSide(event) == StateDiff.FOOTMAN) {
+				footmanRewards[diff.getEventSlot(event)] = 0;
+			} else {
+				targetRewards[diff.getEventSlot(event)] = 0;
+			}
+		}
+	}
+
+	/**
+	 * applies this step's deaths, injuries and moves to the previous state
 	 */
 	private void updateStatusInfo() {
+		UnitTable enemies = prevState.getEnemies();
+		for(int slot = enemies.firstMarked(); slot >= 0; slot = enemies.nextMarked(slot)) {
+			enemyGrid.remove(enemies.id(slot));
+		}
 		prevState.removeMarkedEnemy();
 		prevState.removeMarkedFootman();
-		for(int enemy : prevState.getEnemyIds()) {
-			UnitView unit = currentState.getUnit(enemy);
-			int currentHP = unit.getHP();
-			if(currentHP < prevState.getEnemyHP(enemy)) {
-				prevState.setEnemyHP(enemy, currentHP);
-			}
-			int xPosition = unit.getXPosition();
-			int yPosition = unit.getYPosition();
-			Point location = new Point(xPosition, yPosition);
-			prevState.setEnemyLoc(enemy, location);
-		}
-		for(int footman : prevState.getFootmanIds()) {
-			UnitView unit = currentState.getUnit(footman);
-			int currentHP = unit.getHP();
-			if(currentHP < prevState.getFootmanHP(footman)) {
-				prevState.setFootmanHP(footman, currentHP);
+		UnitTable footmen = prevState.getFootmen();
+		for(int event = 0; event < diff.getNumEvents(); event++) {
+			int slot = diff.getEventSlot(event);
+			int type = diff.getEventType(event);
+			boolean footman = diff.getEventSide(event) == StateDiff.FOOTMAN;
+			UnitTable table = footman ? footmen : enemies;
+			if(type == StateDiff.HP_CHANGED) {
+				int currentHP = footman ? diff.footmanHP(slot) : diff.enemyHP(slot);
+				if(currentHP < table.hp(slot)) {
+					table.setHP(slot, currentHP);
+				}
+			} else if(type == StateDiff.MOVED) {
+				int x = footman ? diff.footmanX(slot) : diff.enemyX(slot);
+				int y = footman ? diff.footmanY(slot) : diff.enemyY(slot);
+				table.setLoc(slot, x, y);
+				if(!footman) {
+					enemyGrid.move(enemies.id(slot), x, y);
+				}
 			}
-			int xPosition = unit.getXPosition();
-			int yPosition = unit.getYPosition();
-			Point location = new Point(xPosition, yPosition);
-			prevState.setEnemyLoc(footman, location);
 		}
 	}
 
 	/**
 	 * updates the weights of the Q function
 	 * @param reward
-	 * @param footmanId
+	 * @param footSlot - slot of the footman in the previous state
 	 */
-	private void updateQFunction(double reward, int footmanId) {
+	private void updateQFunction(double reward, int footSlot) {
 		//calculate previous Q function
-		int footmanTarget = prevState.getFootmanAttack(footmanId);
-		Point prevEnemyLoc = prevState.getEnemyLoc(footmanTarget);
+		UnitTable footmen = prevState.getFootmen();
+		int footmanTarget = footmen.target(footSlot);
+		int prevEnemyX = prevState.getEnemyX(footmanTarget);
+		int prevEnemyY = prevState.getEnemyY(footmanTarget);
 		int prevEnemyHP = prevState.getEnemyHP(footmanTarget);
-		Point prevFootLoc = prevState.getFootmanLoc(footmanId);
-		int prevFootHP = prevState.getFootmanHP(footmanId);
+		int prevFootX = footmen.x(footSlot);
+		int prevFootY = footmen.y(footSlot);
+		int prevFootHP = footmen.hp(footSlot);
 		int prevNumAttackers = prevState.getNumAttackers(footmanTarget);
 
-		double previousQ = calculateQFunction(footmanId, prevEnemyLoc, prevFootLoc, prevEnemyHP, prevFootHP, prevNumAttackers);
+		features.extract(prevFeatures, 0, prevFootX, prevFootY, prevFootHP, prevEnemyX, prevEnemyY, prevEnemyHP, prevNumAttackers);
 
 		//calculate current Q function
-		UnitView friendUnit = currentState.getUnit(footmanId);
-		Point newFriendLoc;
+		int newFriendX;
+		int newFriendY;
 		int newFriendHP;
-		if(friendUnit != null) {
-			newFriendHP = friendUnit.getHP();
-			newFriendLoc = new Point(friendUnit.getXPosition(),friendUnit.getYPosition());
+		if(diff.footmanAlive(footSlot)) {
+			newFriendHP = diff.footmanHP(footSlot);
+			newFriendX = diff.footmanX(footSlot);
+			newFriendY = diff.footmanY(footSlot);
 		} else {
 			newFriendHP = 0;
-			Point footmanLoc = prevState.getFootmanLoc(footmanId);
-			newFriendLoc = new Point(footmanLoc.x, footmanLoc.y);
+			newFriendX = prevFootX;
+			newFriendY = prevFootY;
 		}
+		//the footman features are the same for every candidate
+		features.footmanFeatures(footFeatures, 0, newFriendX, newFriendY, newFriendHP);
 		
-		double maxQ = Double.NEGATIVE_INFINITY;
-		Point maxLoc = null;
-		int maxHP = 0;
-		int maxNumAttackers = -1;
-		int targetId = -1;
-		for(int enemyId : enemyIds) {
-			int numAttackers = calculateNumAttackers(enemyId);
-			UnitView enemyUnit = currentState.getUnit(enemyId);
-			Point newEnemyLoc = new Point(enemyUnit.getXPosition(), enemyUnit.getYPosition());
-			int newEnemyHP = enemyUnit.getHP();
-			double currentQ = calculateQFunction(footmanId, newEnemyLoc, newFriendLoc, newEnemyHP, newFriendHP, numAttackers); 
-			if(currentQ > maxQ) {
-				targetId = enemyId;
-				maxQ = currentQ;
-				maxLoc = newEnemyLoc;
-				maxHP = newEnemyHP;
-				maxNumAttackers = numAttackers;
+		int[] candidateIds = null;
+		int numCandidates = enemyIds.size();
+		if(usePruning()) {
+			numCandidates = enemyGrid.collectNearest(newFriendX, newFriendY, nearestTargets);
+			candidateIds = enemyGrid.getFound();
+		}
+		if(candidateFeatures.length < numCandidates * numFeatures) {
+			candidateFeatures = new double[numCandidates * numFeatures];
+		}
+		if(candidateTargets.length < numCandidates) {
+			candidateTargets = new int[numCandidates];
+		}
+		int numAlive = 0;
+		for(int i = 0; i < numCandidates; i++) {
+			int enemyId = candidateIds == null ? enemyIds.get(i) : candidateIds[i];
+			if(!currentState.isAlive(enemyId)) {
+				continue;
 			}
+			candidateTargets[numAlive] = enemyId;
+			features.extractForFootman(candidateFeatures, numAlive * numFeatures, footFeatures, newFriendX, newFriendY,
+					currentState.getXPosition(enemyId), currentState.getYPosition(enemyId), currentState.getHP(enemyId), calculateNumAttackers(enemyId));
+			numAlive++;
 		}
-		enemyTargets.add(targetId);
+		numCandidates = numAlive;
+		if(transitions != null) {
+			//the background learner does the update, only the greedy target is needed here
+			int best = greedy(weights, candidateFeatures, numCandidates);
+			if(best < 0) {
+				return;
+			}
+			enemyTargets.add(candidateTargets[best]);
+			transitions.offer(prevFeatures, reward, candidateFeatures, numCandidates, best);
+			return;
+		}
+		if(scaler != null) {
+			scaler.observe(prevFeatures, 0);
+		}
+		int traceOffset = lambda > 0 ? footSlot * numFeatures : -1;
+		int best = learn(weights, reward, prevFeatures, candidateFeatures, numCandidates, traceOffset);
+		if(lambda > 0 && !diff.footmanAlive(footSlot)) {
+			Arrays.fill(eligibility, traceOffset, traceOffset + numFeatures, 0);
+		}
+		if(best < 0) {
+			return;
+		}
+		enemyTargets.add(candidateTargets[best]);
+		
+		if(replay != null) {
+			replay.add(prevFeatures, reward, candidateFeatures, numCandidates, best);
+			replayBatch(weights);
+		}
+	}
+	
+	/**
+	 * the update the background learner applies to its own weights for each queued transition
+	 */
+	private void learnAndReplay(double[] w, double reward, double[] previous, double[] candidates, int numCandidates) {
+		if(scaler != null) {
+			scaler.observe(previous, 0);
+		}
+		int best = learn(w, reward, previous, candidates, numCandidates, -1);
+		if(best >= 0 && replay != null) {
+			replay.add(previous, reward, candidates, numCandidates, best);
+			replayBatch(w);
+		}
+	}
+	
+	/**
+	 * updates the weights from past transitions sampled out of the replay buffer
+	 */
+	private void replayBatch(double[] w) {
+		for(int i = 0; i < replayBatchSize; i++) {
+			int index = replay.sample(replayRandom);
+			int numCandidates = replay.read(index, replayPrevious, replayCandidates);
+			learn(w, replay.getReward(index), replayPrevious, replayCandidates, numCandidates, -1);
+		}
+	}
+	
+	/**
+	 * The nearest enemy search is only used while distance counts against a target,
+	 * otherwise a far away enemy could have the highest Q value and every enemy is checked.
+	 * It also needs distance to be the only feature that depends on both units.
+	 * @return true if target searches should only look at the nearest enemies
+	 */
+	private boolean usePruning() {
+		int distance = features.getDistanceFeature();
+		return nearestTargets > 0 && distance >= 0 && features.getPairFeatures().length == 1 && weights[distance] < 0;
+	}
+	
+	/**
+	 * applies one Q learning update to a weight vector
+	 * @param w - the weights to update
+	 * @param reward
+	 * @param previous - features of the pair that was acted on
+	 * @param candidates - flat features of every pair that could be picked next
+	 * @param numCandidates
+	 * @param traceOffset - start of the footman's eligibility trace, -1 for a one step update
+	 * @return the index of the candidate with the highest Q value, or -1 if there were none
+	 */
+	private int learn(double[] w, double reward, double[] previous, double[] candidates, int numCandidates, int traceOffset) {
+		double previousQ = qValue(w, previous, 0);
+		
+		int best = greedy(w, candidates, numCandidates);
+		if(best < 0) {
+			return best;
+		}
+		double maxQ = qValue(w, candidates, best * numFeatures);
 		
 		//update Q function weights	
-		double updateFactor = reward + DISCOUNTING_FACTOR * maxQ - previousQ;
+		double updateFactor = reward + discountingFactor * maxQ - previousQ;
 		
-		weights[0] = weights[0] + LEARNING_RATE * updateFactor;
-		weights[1] = weights[1] + LEARNING_RATE * updateFactor * chebychevDist(maxLoc, newFriendLoc);
-		weights[2] = weights[2] + LEARNING_RATE * updateFactor * maxHP;
-		weights[3] = weights[3] + LEARNING_RATE * updateFactor * newFriendHP;
-		weights[4] = weights[4] + LEARNING_RATE * updateFactor * maxNumAttackers;
-		weights[5] = weights[5] + LEARNING_RATE * updateFactor * newFriendLoc.x;
-		weights[6] = weights[6] + LEARNING_RATE * updateFactor * newFriendLoc.y;
+		double step = learningRate * updateFactor;
+		double[] direction = candidates;
+		int offset = best * numFeatures;
+		if(scaler != null) {
+			scaler.direction(candidates, offset, stepDirection);
+			direction = stepDirection;
+			offset = 0;
+		}
+		if(traceOffset >= 0) {
+			//the trace decays by discount * lambda and accumulates the step direction
+			double decay = discountingFactor * lambda;
+			for(int i = 0; i < numFeatures; i++) {
+				eligibility[traceOffset + i] = decay * eligibility[traceOffset + i] + direction[offset + i];
+			}
+			direction = eligibility;
+			offset = traceOffset;
+		}
+		//the squared norm is tracked in the same pass as the update
+		double squaredNorm = 0;
+		for(int i = 0; i < numFeatures; i++) {
+			w[i] = w[i] + step * direction[offset + i];
+			squaredNorm += w[i] * w[i];
+		}
 		
-		normalizeWeights();
+		if(metrics.isEnabled()) {
+			metrics.weightNorm(Math.sqrt(squaredNorm));
+		}
+		normalizeWeights(w, squaredNorm);
+		metrics.qUpdate();
+		return best;
 	}
-
+	
 	/**
 	 * 
-	 * @param loc1
-	 * @param loc2
-	 * @return the Chebychev distance between the two locations
+	 * @return the index of the candidate with the highest Q value, or -1 if there were none
 	 */
-	private int chebychevDist(Point loc1, Point loc2) {
-		return Math.max(Math.abs(loc1.x - loc2.x), Math.abs(loc1.y - loc2.y));
+	private int greedy(double[] w, double[] candidates, int numCandidates) {
+		double maxQ = Double.NEGATIVE_INFINITY;
+		int best = -1;
+		for(int i = 0; i < numCandidates; i++) {
+			double currentQ = qValue(w, candidates, i * numFeatures);
+			if(currentQ > maxQ) {
+				maxQ = currentQ;
+				best = i;
+			}
+		}
+		return best;
 	}
 	
 	/**
-	 * normalizes the weights vector
+	 * 
+	 * @return the Q value of the features starting at offset
 	 */
-	private void normalizeWeights() {
-		double totalWeight = 0;
-		for(int i = 0; i < weights.length; i++) {
-			totalWeight += weights[i] * weights[i];
+	private double qValue(double[] w, double[] vector, int offset) {
+		double qValue = 0;
+		for(int i = 0; i < numFeatures; i++) {
+			qValue += w[i] * vector[offset + i];
 		}
-		totalWeight = Math.sqrt(totalWeight);
-		for(int i = 0; i < weights.length; i++) {
-			weights[i] /= totalWeight;
+		return qValue;
+	}
+
+	/**
+	 * normalizes a weights vector, unless its norm is still within the tolerance of 1
+	 * @param w
+	 * @param squaredNorm - the squared L2 norm of w
+	 */
+	private void normalizeWeights(double[] w, double squaredNorm) {
+		//|norm - 1| <= t exactly when max(0, 1 - t)^2 <= norm^2 <= (1 + t)^2
+		double low = Math.max(0, 1 - normTolerance);
+		double high = 1 + normTolerance;
+		if(normTolerance > 0 && squaredNorm >= low * low && squaredNorm <= high * high) {
+			return;
+		}
+		double totalWeight = Math.sqrt(squaredNorm);
+		double scale = 1 / totalWeight;
+		for(int i = 0; i < w.length; i++) {
+			w[i] *= scale;
 		}
 	}
 
 	/**
 	 * 
-	 * @param footmanId
-	 * @param enemyLoc
-	 * @param footLoc
+	 * @param enemyX
+	 * @param enemyY
+	 * @param footX
+	 * @param footY
 	 * @param enemyHP
 	 * @param footHP
 	 * @param numAttackers
 	 * @return the value of the Q function
 	 */
-	private double calculateQFunction(int footmanId, Point enemyLoc, Point footLoc, int enemyHP, int footHP, int numAttackers) {
-		double qValue = 0;
-		
-		qValue += weights[0];
-		qValue += weights[1] * chebychevDist(enemyLoc, footLoc);
-		qValue += weights[2] * enemyHP;
-		qValue += weights[3] * footHP;
-		qValue += weights[4] * numAttackers;
-		qValue += weights[5] * footLoc.x;
-		qValue += weights[6] * footLoc.y;
-		
-		return qValue;
+	private double calculateQFunction(int enemyX, int enemyY, int footX, int footY, int enemyHP, int footHP, int numAttackers) {
+		features.extract(qFeatures, 0, footX, footY, footHP, enemyX, enemyY, enemyHP, numAttackers);
+		return qValue(weights, qFeatures, 0);
+	}
+	
+	/**
+	 * checks every batched Q value of the last decide phase against calculateQFunction,
+	 * with the attacker counts the decide phase ended with
+	 * @return the number of pairs checked, 0 if no decide phase ran this episode
+	 * @throws IllegalStateException if a pair's Q values differ
+	 */
+	public int checkBatch() {
+		if(!batchLoaded) {
+			return 0;
+		}
+		for(int i = 0; i < batch.getNumFootmen(); i++) {
+			for(int j = 0; j < batch.getNumEnemies(); j++) {
+				if(!matchesReference(i, j)) {
+					throw new IllegalStateException("Batched Q value of footman " + batch.footmanId(i) + " and enemy "
+							+ batch.enemyId(j) + " is " + batch.qValue(i, j) + ", not the reference value");
+				}
+			}
+		}
+		return batch.getNumFootmen() * batch.getNumEnemies();
+	}
+
+	/**
+	 * checks a batched Q value against calculateQFunction
+	 * @param footIndex - index of the footman in the batch
+	 * @param enemyIndex - index of the enemy in the batch
+	 * @return true if both evaluations agree
+	 */
+	private boolean matchesReference(int footIndex, int enemyIndex) {
+		int numAttackers = calculateNumAttackers(batch.enemyId(enemyIndex));
+		double expected = calculateQFunction(batch.enemyX(enemyIndex), batch.enemyY(enemyIndex),
+				batch.footmanX(footIndex), batch.footmanY(footIndex),
+				batch.enemyHP(enemyIndex), batch.footmanHP(footIndex), numAttackers);
+		double actual = batch.qValue(footIndex, enemyIndex);
+		return Math.abs(expected - actual) <= 1e-9 * Math.max(1, Math.abs(expected));
 	}
 	
 	/**
-	 * calculates how many footmen are currently attacking a specific enemy
+	 * looks up how many footmen have been assigned to a specific enemy so far this step
 	 * @param enemyId - id of the enemy being attacked
 	 * @return the number of footmen attacking enemyId 
 	 */
 	private int calculateNumAttackers(int enemyId) {
-		int numAttackers = 0;
-		for(int id : enemyTargets) {
-			if(id == enemyId) {
-				numAttackers++;
-			}
-		}
-		return numAttackers;
+		return enemyTargets.get(enemyId);
+	}
+	
+	/**
+	 * 
+	 * @return the reward of the episode being played, or of the last one once it ended
+	 */
+	public double getEpisodeReward() {
+		return cumulativeReward;
+	}
+	
+	/**
+	 * 
+	 * @return true once the agent has played all of its target episodes
+	 */
+	public boolean isFinished() {
+		return numEpisodes > targetEpisodes;
+	}
+	
+	public int getNumEpisodes() {
+		return numEpisodes;
+	}
+	
+	/**
+	 * 
+	 * @return true if the current episode is in the learning part of its cycle
+	 */
+	public boolean isLearningEpisode() {
+		return !frozen && numEpisodes % config.getCycle() < config.getLearnEpisodes();
+	}
+	
+	/**
+	 * 
+	 * @return the number of footmen that chose a target in the last event step
+	 */
+	public int getLastReplanned() {
+		return lastReplanned;
+	}
+	
+	/**
+	 * 
+	 * @return the number of footmen that kept their target in the last event step because it ran out of time
+	 */
+	public int getLastCarriedOver() {
+		return lastCarriedOver;
+	}
+	
+	/**
+	 * 
+	 * @return the average reward of the last finished evaluation phase
+	 */
+	public double getEvaluationReward() {
+		return evaluationReward;
+	}
+	
+	/**
+	 * 
+	 * @return the number of evaluation phases finished so far
+	 */
+	public int getNumEvaluations() {
+		return numEvaluations;
 	}
 	
 	public void printWeights() {
@@ -477,12 +1264,55 @@ public class RLAgent extends Agent {
 	}
 
 
+	/**
+	 * 
+	 * @return a checkpoint of the current weights and episode count
+	 */
+	public WeightCheckpoint checkpoint() {
+		return new WeightCheckpoint(discountingFactor, learningRate, epsilon, numEpisodes, weights);
+	}
+	
+	/**
+	 * continues learning from a checkpoint, not for agents with shared weights, which would
+	 * overwrite it with the shared vector at the next step
+	 * @param checkpoint
+	 */
+	public void restore(WeightCheckpoint checkpoint) {
+		if(sharedWeights != null) {
+			throw new IllegalStateException("An agent with shared weights can't restore a checkpoint");
+		}
+		if(learner != null) {
+			learner.reset(checkpoint.getWeights());
+			weights = learner.getWeights();
+		} else {
+			System.arraycopy(checkpoint.getWeights(), 0, weights, 0, numFeatures);
+		}
+		//a frozen agent scores with the features until the next episode builds tables for the new weights
+		if(frozenTables != null) {
+			frozenTables = null;
+			batch = new QBatchEvaluator(features);
+			batchLoaded = false;
+		}
+		//and counts its own episodes
+		if(!frozen) {
+			numEpisodes = checkpoint.getNumEpisodes();
+		}
+	}
+
 	@Override
 	public void savePlayerData(OutputStream os) {
-		//this agent lacks learning and so has nothing to persist.
+		try {
+			checkpoint().write(os);
+		} catch(IOException e) {
+			throw new IllegalStateException("Could not save weights", e);
+		}
 	}
 	@Override
 	public void loadPlayerData(InputStream is) {
-		//this agent lacks learning and so has nothing to persist.
+		try {
+			restore(WeightCheckpoint.read(is, numFeatures));
+		} catch(IOException e) {
+			throw new IllegalStateException("Could not load weights", e);
+		}
 	}
 }
@@ -0,0 +1,190 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The worker side of a {@link ParameterServer}.  Agents read and update a
+ * local copy of the weights exactly as they would a SharedWeights, and the
+ * updates are also summed into a pending delta.  Every pushEvery updates the
+ * pending delta is sent to the server, and the local copy is replaced by
+ * the weights the server answers with.  A push the server rejects as too
+ * stale throws its whole pending delta away.
+ *
+ * Once the connection fails every later push fails too, and close only
+ * disconnects, so the first failure is the one that is reported.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class RemoteWeights extends SharedWeights implements Closeable {
+	private static final Logger logger = Logger.getLogger(RemoteWeights.class.getCanonicalName());
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final String[] hyperparameters;
+	private final double[] pending;
+	private int pushEvery = 1;
+	private int numPending;
+	private long version;
+	private long pushes;
+	private long rejected;
+	private boolean broken;
+
+	private RemoteWeights(Socket socket, DataInputStream in, DataOutputStream out, String[] hyperparameters, int numFeatures) {
+		super(new double[numFeatures]);
+		this.socket = socket;
+		this.in = in;
+		this.out = out;
+		this.hyperparameters = hyperparameters;
+		pending = new double[numFeatures];
+	}
+
+	/**
+	 * connects to a parameter server on this machine and takes its current weights
+	 * @param port - the port the server listens on
+	 */
+	public static RemoteWeights connect(int port) throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			if(in.readInt() != ParameterServer.MAGIC) {
+				throw new IOException("Not a parameter server on port " + port);
+			}
+			int numFeatures = in.readInt();
+			String[] hyperparameters = new String[in.readInt()];
+			for(int i = 0; i < hyperparameters.length; i++) {
+				hyperparameters[i] = in.readUTF();
+			}
+			RemoteWeights weights = new RemoteWeights(socket, in, out, hyperparameters, numFeatures);
+			weights.readWeights();
+			return weights;
+		} catch(IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * puts the server's agent arguments between the episode count and the
+	 * given arguments, so the given ones win
+	 * @param arguments - agent arguments, the first is the episode count
+	 */
+	public String[] withHyperparameters(String[] arguments) {
+		String[] merged = new String[arguments.length + hyperparameters.length];
+		merged[0] = arguments[0];
+		System.arraycopy(hyperparameters, 0, merged, 1, hyperparameters.length);
+		System.arraycopy(arguments, 1, merged, hyperparameters.length + 1, arguments.length - 1);
+		return merged;
+	}
+
+	/**
+	 *
+	 * @param pushEvery - number of updates summed before they are sent
+	 */
+	public synchronized void setPushEvery(int pushEvery) {
+		this.pushEvery = Math.max(1, pushEvery);
+	}
+
+	@Override
+	public synchronized void addDelta(double[] before, double[] after) {
+		for(int i = 0; i < before.length; i++) {
+			double delta = after[i] - before[i];
+			add(i, delta);
+			pending[i] += delta;
+		}
+		numPending++;
+		if(numPending >= pushEvery) {
+			push();
+		}
+	}
+
+	/**
+	 * sends the pending updates and takes the server's newest weights
+	 */
+	public synchronized void push() {
+		try {
+			send();
+		} catch(IOException e) {
+			throw new IllegalStateException("Lost the parameter server", e);
+		}
+	}
+
+	private void send() throws IOException {
+		if(broken) {
+			throw new IOException("The connection to the parameter server already failed");
+		}
+		try {
+			out.writeByte(ParameterServer.PUSH);
+			out.writeLong(version);
+			for(int i = 0; i < pending.length; i++) {
+				out.writeDouble(pending[i]);
+				pending[i] = 0;
+			}
+			out.flush();
+			numPending = 0;
+			pushes++;
+			if(!in.readBoolean()) {
+				rejected++;
+			}
+			readWeights();
+		} catch(IOException e) {
+			broken = true;
+			throw e;
+		}
+	}
+
+	private void readWeights() throws IOException {
+		version = in.readLong();
+		for(int i = 0; i < length(); i++) {
+			set(i, in.readDouble());
+		}
+	}
+
+	public synchronized long getPushes() {
+		return pushes;
+	}
+
+	/**
+	 *
+	 * @return the number of pushes the server dropped as too stale
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * sends whatever is pending and disconnects, or only disconnects if the
+	 * connection already failed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(socket.isClosed()) {
+			return;
+		}
+		if(broken) {
+			logger.log(Level.WARNING, "Lost the parameter server, dropping " + numPending + " pending updates");
+			socket.close();
+			return;
+		}
+		try {
+			if(numPending > 0) {
+				send();
+			}
+			out.writeByte(ParameterServer.CLOSE);
+			out.flush();
+		} finally {
+			socket.close();
+		}
+	}
+}
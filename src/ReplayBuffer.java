@@ -0,0 +1,158 @@
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * A fixed size ring of past transitions kept outside the Java heap.  Each
+ * record holds the features of the previous (footman, target) pair, the
+ * reward, and the features of every target the footman could pick next, so
+ * the max over the next state can be recomputed with the current weights
+ * when the transition is replayed.  Once full, the oldest record is
+ * overwritten, so memory use never grows with the number of episodes.
+ *
+ * Record layout:
+ * <pre>
+ * double previous[numFeatures]
+ * double reward
+ * int    number of candidates
+ * double candidates[maxCandidates][numFeatures]
+ * </pre>
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class ReplayBuffer {
+
+	private final int capacity;
+	private final int numFeatures;
+	private final int maxCandidates;
+	private final int recordBytes;
+	private final ByteBuffer records;
+
+	private int next;
+	private int size;
+
+	/**
+	 * 
+	 * @param capacity - number of transitions kept
+	 * @param numFeatures - length of a feature vector
+	 * @param maxCandidates - candidate targets kept per transition, the greedy one is always kept
+	 */
+	public ReplayBuffer(int capacity, int numFeatures, int maxCandidates) {
+		this.capacity = capacity;
+		this.numFeatures = numFeatures;
+		this.maxCandidates = maxCandidates;
+		recordBytes = recordBytes(numFeatures, maxCandidates);
+		records = ByteBuffer.allocateDirect(bytes(capacity, numFeatures, maxCandidates));
+	}
+
+	/**
+	 * 
+	 * @return the bytes a buffer with these dimensions takes
+	 * @throws IllegalArgumentException if that does not fit in one direct buffer
+	 */
+	public static int bytes(int capacity, int numFeatures, int maxCandidates) {
+		try {
+			return Math.multiplyExact(capacity, recordBytes(numFeatures, maxCandidates));
+		} catch(ArithmeticException e) {
+			throw new IllegalArgumentException(capacity + " transitions of " + maxCandidates
+					+ " candidates don't fit in one buffer", e);
+		}
+	}
+
+	private static int recordBytes(int numFeatures, int maxCandidates) {
+		try {
+			int vectorBytes = Math.multiplyExact(8, numFeatures);
+			return Math.addExact(vectorBytes + 8 + 4, Math.multiplyExact(vectorBytes, maxCandidates));
+		} catch(ArithmeticException e) {
+			throw new IllegalArgumentException("A transition of " + maxCandidates + " candidates doesn't fit in one buffer", e);
+		}
+	}
+
+	/**
+	 * stores a transition, overwriting the oldest one when the buffer is full
+	 * @param previous - features of the pair that was acted on
+	 * @param reward
+	 * @param candidates - flat features of the next candidate pairs
+	 * @param numCandidates - number of candidate pairs in candidates
+	 * @param best - index of the greedy candidate
+	 */
+	public void add(double[] previous, double reward, double[] candidates, int numCandidates, int best) {
+		int base = next * recordBytes;
+		int position = base;
+		for(int i = 0; i < numFeatures; i++) {
+			records.putDouble(position, previous[i]);
+			position += 8;
+		}
+		records.putDouble(position, reward);
+		position += 8;
+		int kept = Math.min(numCandidates, maxCandidates);
+		records.putInt(position, kept);
+		position += 4;
+
+		//the greedy candidate goes first so it survives truncation
+		position = putCandidate(position, candidates, best);
+		for(int c = 0, stored = 1; c < numCandidates && stored < kept; c++) {
+			if(c != best) {
+				position = putCandidate(position, candidates, c);
+				stored++;
+			}
+		}
+
+		next = (next + 1) % capacity;
+		size = Math.min(size + 1, capacity);
+	}
+
+	private int putCandidate(int position, double[] candidates, int candidate) {
+		int offset = candidate * numFeatures;
+		for(int i = 0; i < numFeatures; i++) {
+			records.putDouble(position, candidates[offset + i]);
+			position += 8;
+		}
+		return position;
+	}
+
+	/**
+	 * 
+	 * @param random
+	 * @return the index of a uniformly chosen stored transition
+	 */
+	public int sample(SplittableRandom random) {
+		return random.nextInt(size);
+	}
+
+	/**
+	 * copies a stored transition out of the buffer
+	 * @param index - index of the transition
+	 * @param previous - receives the features of the pair that was acted on
+	 * @param candidates - receives the flat features of the next candidate pairs
+	 * @return the number of candidates copied
+	 */
+	public int read(int index, double[] previous, double[] candidates) {
+		int position = index * recordBytes;
+		for(int i = 0; i < numFeatures; i++) {
+			previous[i] = records.getDouble(position);
+			position += 8;
+		}
+		position += 8;
+		int numCandidates = records.getInt(position);
+		position += 4;
+		for(int i = 0; i < numCandidates * numFeatures; i++) {
+			candidates[i] = records.getDouble(position);
+			position += 8;
+		}
+		return numCandidates;
+	}
+
+	public double getReward(int index) {
+		return records.getDouble(index * recordBytes + 8 * numFeatures);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getMaxCandidates() {
+		return maxCandidates;
+	}
+}
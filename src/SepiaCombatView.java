@@ -0,0 +1,59 @@
+import java.util.List;
+
+import edu.cwru.sepia.environment.model.state.State.StateView;
+import edu.cwru.sepia.environment.model.state.Unit.UnitView;
+
+/**
+ * Adapts a SEPIA StateView to the CombatView the agent reads from.  One
+ * instance is reused for every step, only the wrapped state changes.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class SepiaCombatView implements CombatView {
+
+	private StateView state;
+
+	public void setState(StateView state) {
+		this.state = state;
+	}
+
+	public StateView getState() {
+		return state;
+	}
+
+	@Override
+	public List<Integer> getUnitIds(int player) {
+		return state.getUnitIds(player);
+	}
+
+	@Override
+	public boolean isAlive(int unitId) {
+		return state.getUnit(unitId) != null;
+	}
+
+	@Override
+	public int getHP(int unitId) {
+		return state.getUnit(unitId).getHP();
+	}
+
+	@Override
+	public int getXPosition(int unitId) {
+		return state.getUnit(unitId).getXPosition();
+	}
+
+	@Override
+	public int getYPosition(int unitId) {
+		return state.getUnit(unitId).getYPosition();
+	}
+
+	/**
+	 * 
+	 * @param unitId - ID of the unit you are concerned with.
+	 * @return the SEPIA view of the unit, or null if it is dead
+	 */
+	public UnitView getUnit(int unitId) {
+		return state.getUnit(unitId);
+	}
+}
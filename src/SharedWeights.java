@@ -0,0 +1,76 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A weight vector shared by several agents learning at the same time.
+ * Updates are applied Hogwild style: each agent learns on its own copy and
+ * pushes the difference back, and every component is added with its own
+ * compare-and-set so no agent ever waits on a lock.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class SharedWeights {
+
+	private final AtomicLongArray bits;
+
+	public SharedWeights(double[] initial) {
+		bits = new AtomicLongArray(initial.length);
+		for(int i = 0; i < initial.length; i++) {
+			bits.set(i, Double.doubleToRawLongBits(initial[i]));
+		}
+	}
+
+	public int length() {
+		return bits.length();
+	}
+
+	public double get(int i) {
+		return Double.longBitsToDouble(bits.get(i));
+	}
+
+	/**
+	 * copies the current shared weights into the given array
+	 */
+	public void copyTo(double[] weights) {
+		for(int i = 0; i < weights.length; i++) {
+			weights[i] = Double.longBitsToDouble(bits.get(i));
+		}
+	}
+
+	/**
+	 * @return a copy of the current shared weights
+	 */
+	public double[] snapshot() {
+		double[] weights = new double[bits.length()];
+		copyTo(weights);
+		return weights;
+	}
+
+	public void set(int i, double value) {
+		bits.set(i, Double.doubleToRawLongBits(value));
+	}
+
+	public void add(int i, double delta) {
+		if(delta == 0) {
+			return;
+		}
+		long current;
+		long updated;
+		do {
+			current = bits.get(i);
+			updated = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+		} while(!bits.compareAndSet(i, current, updated));
+	}
+
+	/**
+	 * adds (after - before) to the shared weights, component by component
+	 * @param before - the weights the agent started learning from
+	 * @param after - the weights after the agent's local updates
+	 */
+	public void addDelta(double[] before, double[] after) {
+		for(int i = 0; i < before.length; i++) {
+			add(i, after[i] - before[i]);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+import java.util.Arrays;
+
+/**
+ * Compares the units remembered in the PreviousState against the new state
+ * in a single pass.  The new HP and position of every remembered unit are
+ * copied into arrays indexed by the unit's slot in the PreviousState, and
+ * every death, injury or move is recorded as an event.  The agent takes its
+ * rewards and updates what it remembers from the events alone.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class StateDiff {
+
+	public static final int DIED = 0;
+	public static final int HP_CHANGED = 1;
+	public static final int MOVED = 2;
+
+	public static final int FOOTMAN = 0;
+	public static final int ENEMY = 1;
+
+	private final Side footmen = new Side();
+	private final Side enemies = new Side();
+
+	private int numEvents;
+	private int[] eventSide = new int[16];
+	private int[] eventSlot = new int[16];
+	private int[] eventType = new int[16];
+	private boolean injuries;
+
+	/**
+	 * the new values of one side's units, by slot
+	 */
+	private static class Side {
+		int[] hp = new int[0];
+		int[] x = new int[0];
+		int[] y = new int[0];
+		boolean[] alive = new boolean[0];
+		boolean[] injured = new boolean[0];
+
+		void ensureCapacity(int capacity) {
+			if(hp.length < capacity) {
+				hp = new int[capacity];
+				x = new int[capacity];
+				y = new int[capacity];
+				alive = new boolean[capacity];
+				injured = new boolean[capacity];
+			}
+		}
+	}
+
+	/**
+	 * reads every unit in prevState out of the new state and records what changed
+	 * @param view - the new state
+	 * @param prevState - what the agent remembers from the last event
+	 */
+	public void capture(CombatView view, PreviousState prevState) {
+		numEvents = 0;
+		injuries = false;
+		UnitTable enemyTable = prevState.getEnemies();
+		capture(view, enemyTable, enemies, ENEMY);
+		UnitTable footmanTable = prevState.getFootmen();
+		capture(view, footmanTable, footmen, FOOTMAN);
+
+		//a change to a footman, or to an enemy some footman is attacking, is an event
+		for(int i = 0; i < numEvents && !injuries; i++) {
+			if(eventType[i] == MOVED) {
+				continue;
+			}
+			if(eventSide[i] == FOOTMAN || prevState.getNumAttackers(enemyTable.id(eventSlot[i])) > 0) {
+				injuries = true;
+			}
+		}
+	}
+
+	private void capture(CombatView view, UnitTable table, Side side, int sideType) {
+		side.ensureCapacity(table.capacity());
+		for(int slot = table.first(); slot >= 0; slot = table.next(slot)) {
+			int id = table.id(slot);
+			if(!view.isAlive(id)) {
+				side.alive[slot] = false;
+				side.injured[slot] = false;
+				side.hp[slot] = 0;
+				side.x[slot] = table.x(slot);
+				side.y[slot] = table.y(slot);
+				addEvent(sideType, slot, DIED);
+				continue;
+			}
+			side.alive[slot] = true;
+			side.hp[slot] = view.getHP(id);
+			side.x[slot] = view.getXPosition(id);
+			side.y[slot] = view.getYPosition(id);
+			side.injured[slot] = side.hp[slot] != table.hp(slot);
+			if(side.injured[slot]) {
+				addEvent(sideType, slot, HP_CHANGED);
+			}
+			if(side.x[slot] != table.x(slot) || side.y[slot] != table.y(slot)) {
+				addEvent(sideType, slot, MOVED);
+			}
+		}
+	}
+
+	private void addEvent(int side, int slot, int type) {
+		if(numEvents == eventType.length) {
+			eventSide = Arrays.copyOf(eventSide, numEvents * 2);
+			eventSlot = Arrays.copyOf(eventSlot, numEvents * 2);
+			eventType = Arrays.copyOf(eventType, numEvents * 2);
+		}
+		eventSide[numEvents] = side;
+		eventSlot[numEvents] = slot;
+		eventType[numEvents] = type;
+		numEvents++;
+	}
+
+	/**
+	 *
+	 * @return true if a footman, or an enemy being attacked, died or changed HP
+	 */
+	public boolean hasInjuries() {
+		return injuries;
+	}
+
+	public int getNumEvents() {
+		return numEvents;
+	}
+
+	/**
+	 *
+	 * @return FOOTMAN or ENEMY
+	 */
+	public int getEventSide(int event) {
+		return eventSide[event];
+	}
+
+	/**
+	 *
+	 * @return the slot of the unit in its PreviousState table
+	 */
+	public int getEventSlot(int event) {
+		return eventSlot[event];
+	}
+
+	/**
+	 *
+	 * @return DIED, HP_CHANGED or MOVED
+	 */
+	public int getEventType(int event) {
+		return eventType[event];
+	}
+
+	public boolean footmanAlive(int slot) {
+		return footmen.alive[slot];
+	}
+
+	/**
+	 *
+	 * @return true if the footman is alive and its HP changed
+	 */
+	public boolean footmanInjured(int slot) {
+		return footmen.injured[slot];
+	}
+
+	public int footmanHP(int slot) {
+		return footmen.hp[slot];
+	}
+
+	public int footmanX(int slot) {
+		return footmen.x[slot];
+	}
+
+	public int footmanY(int slot) {
+		return footmen.y[slot];
+	}
+
+	public boolean enemyAlive(int slot) {
+		return enemies.alive[slot];
+	}
+
+	public int enemyHP(int slot) {
+		return enemies.hp[slot];
+	}
+
+	public int enemyX(int slot) {
+		return enemies.x[slot];
+	}
+
+	public int enemyY(int slot) {
+		return enemies.y[slot];
+	}
+}
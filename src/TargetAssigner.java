@@ -0,0 +1,149 @@
+import java.util.Arrays;
+
+/**
+ * Assigns footmen to enemies jointly instead of one footman at a time.  Each
+ * enemy is split into capacity slots, the k-th slot is worth the enemy term
+ * with k more attackers, so the value of sending a group of footmen to an
+ * enemy is the same as if they had picked it one after another.  The slots
+ * are then filled by the Hungarian method with shortest augmenting paths in
+ * O(footmen * footmen * slots) time.  As long as an enemy's term does not
+ * grow with its attackers, the lower slots are always filled first and the
+ * result is the assignment with the highest total Q value, whatever order
+ * the footmen are in.  If it does grow, piling on is already what the
+ * greedy assignment does and the result is only a heuristic.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class TargetAssigner {
+
+	private int[] bidders = new int[0];
+	private int[] result = new int[0];
+	private int[] slotEnemy = new int[0];
+	private double[] slotTerm = new double[0];
+
+	//potentials and matching of the Hungarian method, index 0 is a sentinel
+	private double[] rowPotential = new double[0];
+	private double[] slotPotential = new double[0];
+	private double[] minReduced = new double[0];
+	private int[] slotOwner = new int[0];
+	private int[] previousSlot = new int[0];
+	private boolean[] visited = new boolean[0];
+
+	/**
+	 * solves the assignment for every footman that is not skipped, only valid
+	 * after the batch has been evaluated
+	 * @param batch - the evaluated Q matrix
+	 * @param skip - footmen that already have a target, by index in the batch
+	 * @param attackers - footmen already assigned to each enemy, by enemy id
+	 * @param capacity - the most footmen sent to one enemy, raised if the
+	 * enemies could not take every footman otherwise, 0 for as few as fit
+	 * @return the enemy index for every footman index, -1 for skipped footmen or if there are no enemies
+	 */
+	public int[] assign(QBatchEvaluator batch, boolean[] skip, AttackerIndex attackers, int capacity) {
+		int numFootmen = batch.getNumFootmen();
+		int numEnemies = batch.getNumEnemies();
+		if(result.length < numFootmen) {
+			result = new int[numFootmen];
+			bidders = new int[numFootmen];
+			rowPotential = new double[numFootmen + 1];
+		}
+		Arrays.fill(result, 0, numFootmen, -1);
+		int numBidders = 0;
+		for(int i = 0; i < numFootmen; i++) {
+			if(!skip[i]) {
+				bidders[numBidders++] = i;
+			}
+		}
+		if(numBidders == 0 || numEnemies == 0) {
+			return result;
+		}
+
+		int slotsPerEnemy = Math.max(capacity, (numBidders + numEnemies - 1) / numEnemies);
+		slotsPerEnemy = Math.min(slotsPerEnemy, numBidders);
+		int numSlots = numEnemies * slotsPerEnemy;
+		if(slotEnemy.length < numSlots + 1) {
+			slotEnemy = new int[numSlots + 1];
+			slotTerm = new double[numSlots + 1];
+			slotPotential = new double[numSlots + 1];
+			minReduced = new double[numSlots + 1];
+			slotOwner = new int[numSlots + 1];
+			previousSlot = new int[numSlots + 1];
+			visited = new boolean[numSlots + 1];
+		}
+		for(int j = 0; j < numEnemies; j++) {
+			int assigned = attackers.get(batch.enemyId(j));
+			for(int k = 0; k < slotsPerEnemy; k++) {
+				int slot = 1 + j * slotsPerEnemy + k;
+				slotEnemy[slot] = j;
+				slotTerm[slot] = batch.enemyTerm(j, assigned + k);
+			}
+		}
+
+		Arrays.fill(rowPotential, 0, numBidders + 1, 0);
+		Arrays.fill(slotPotential, 0, numSlots + 1, 0);
+		Arrays.fill(slotOwner, 0, numSlots + 1, 0);
+		for(int row = 1; row <= numBidders; row++) {
+			augment(batch, row, numSlots);
+		}
+
+		for(int slot = 1; slot <= numSlots; slot++) {
+			if(slotOwner[slot] > 0) {
+				result[bidders[slotOwner[slot] - 1]] = slotEnemy[slot];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * the cost of giving a slot to a bidder, the negated Q value
+	 */
+	private double cost(QBatchEvaluator batch, int row, int slot) {
+		return -(batch.matrixValue(bidders[row - 1], slotEnemy[slot]) + slotTerm[slot]);
+	}
+
+	/**
+	 * adds one bidder to the matching along a shortest path of reduced costs
+	 */
+	private void augment(QBatchEvaluator batch, int row, int numSlots) {
+		slotOwner[0] = row;
+		int slot = 0;
+		Arrays.fill(minReduced, 0, numSlots + 1, Double.POSITIVE_INFINITY);
+		Arrays.fill(visited, 0, numSlots + 1, false);
+		do {
+			visited[slot] = true;
+			int owner = slotOwner[slot];
+			double delta = Double.POSITIVE_INFINITY;
+			int next = 0;
+			for(int s = 1; s <= numSlots; s++) {
+				if(visited[s]) {
+					continue;
+				}
+				double reduced = cost(batch, owner, s) - rowPotential[owner] - slotPotential[s];
+				if(reduced < minReduced[s]) {
+					minReduced[s] = reduced;
+					previousSlot[s] = slot;
+				}
+				if(minReduced[s] < delta) {
+					delta = minReduced[s];
+					next = s;
+				}
+			}
+			for(int s = 0; s <= numSlots; s++) {
+				if(visited[s]) {
+					rowPotential[slotOwner[s]] += delta;
+					slotPotential[s] -= delta;
+				} else {
+					minReduced[s] -= delta;
+				}
+			}
+			slot = next;
+		} while(slotOwner[slot] != 0);
+		do {
+			int previous = previousSlot[slot];
+			slotOwner[slot] = slotOwner[previous];
+			slot = previous;
+		} while(slot != 0);
+	}
+}
@@ -0,0 +1,171 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams the records of an episode trace written by TraceWriter.  The file
+ * is memory mapped read only and every record is decoded into arrays that
+ * are reused for the next one.  Reading stops at the end offset recorded in
+ * the header, or earlier at a record that does not fit in the bytes left,
+ * which a crash can leave behind.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class TraceReader {
+
+	private final ByteBuffer buffer;
+
+	private int episode;
+	private int step;
+	private double reward;
+	private int numFootmen;
+	private int numEnemies;
+	private int[] footmen = new int[0];
+	private int[] enemies = new int[0];
+
+	/**
+	 * 
+	 * @param file - the trace to read
+	 * @throws IOException if the file is not a trace
+	 */
+	public TraceReader(File file) throws IOException {
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		if(buffer.remaining() < TraceWriter.HEADER_BYTES || buffer.getInt() != TraceWriter.MAGIC) {
+			throw new IOException(file + " is not an episode trace");
+		}
+		int version = buffer.getInt();
+		if(version != TraceWriter.VERSION) {
+			throw new IOException("Unsupported trace version " + version);
+		}
+		int end = buffer.getInt();
+		if(end < TraceWriter.HEADER_BYTES || end > buffer.capacity()) {
+			throw new IOException(file + " has a corrupt header");
+		}
+		buffer.limit(end);
+	}
+
+	/**
+	 * decodes the next record
+	 * @return EPISODE, STEP or END, or 0 once there are no more records
+	 */
+	public int next() {
+		if(!buffer.hasRemaining()) {
+			return 0;
+		}
+		int mark = buffer.position();
+		byte type = buffer.get();
+		if(type == TraceWriter.EPISODE && buffer.remaining() >= 4) {
+			episode = buffer.getInt();
+		} else if(type == TraceWriter.STEP && buffer.remaining() >= 20) {
+			int stepRead = buffer.getInt();
+			double rewardRead = buffer.getDouble();
+			int footmenRead = buffer.getInt();
+			int enemiesRead = buffer.getInt();
+			if(footmenRead < 0 || enemiesRead < 0 || buffer.remaining()
+					< 4L * ((long)footmenRead * TraceWriter.FOOTMAN_INTS + (long)enemiesRead * TraceWriter.ENEMY_INTS)) {
+				//a record cut short
+				buffer.position(mark);
+				return 0;
+			}
+			step = stepRead;
+			reward = rewardRead;
+			numFootmen = footmenRead;
+			numEnemies = enemiesRead;
+			if(footmen.length < numFootmen * TraceWriter.FOOTMAN_INTS) {
+				footmen = new int[numFootmen * TraceWriter.FOOTMAN_INTS];
+			}
+			if(enemies.length < numEnemies * TraceWriter.ENEMY_INTS) {
+				enemies = new int[numEnemies * TraceWriter.ENEMY_INTS];
+			}
+			buffer.asIntBuffer().get(footmen, 0, numFootmen * TraceWriter.FOOTMAN_INTS);
+			buffer.position(buffer.position() + 4 * numFootmen * TraceWriter.FOOTMAN_INTS);
+			buffer.asIntBuffer().get(enemies, 0, numEnemies * TraceWriter.ENEMY_INTS);
+			buffer.position(buffer.position() + 4 * numEnemies * TraceWriter.ENEMY_INTS);
+		} else if(type == TraceWriter.END && buffer.remaining() >= 8) {
+			reward = buffer.getDouble();
+		} else {
+			//a record cut short, or not a record at all
+			buffer.position(mark);
+			return 0;
+		}
+		return type;
+	}
+
+	/**
+	 * 
+	 * @return the offset just past the last record read
+	 */
+	public int getPosition() {
+		return buffer.position();
+	}
+
+	public int getEpisode() {
+		return episode;
+	}
+
+	public int getStep() {
+		return step;
+	}
+
+	/**
+	 * 
+	 * @return the reward of the step, or of the whole episode after an END record
+	 */
+	public double getReward() {
+		return reward;
+	}
+
+	public int getNumFootmen() {
+		return numFootmen;
+	}
+
+	public int getNumEnemies() {
+		return numEnemies;
+	}
+
+	public int footmanId(int i) {
+		return footmen[i * TraceWriter.FOOTMAN_INTS];
+	}
+
+	public int footmanHP(int i) {
+		return footmen[i * TraceWriter.FOOTMAN_INTS + 1];
+	}
+
+	public int footmanX(int i) {
+		return footmen[i * TraceWriter.FOOTMAN_INTS + 2];
+	}
+
+	public int footmanY(int i) {
+		return footmen[i * TraceWriter.FOOTMAN_INTS + 3];
+	}
+
+	/**
+	 * 
+	 * @return the enemy the footman was ordered to attack at this step
+	 */
+	public int footmanTarget(int i) {
+		return footmen[i * TraceWriter.FOOTMAN_INTS + 4];
+	}
+
+	public int enemyId(int j) {
+		return enemies[j * TraceWriter.ENEMY_INTS];
+	}
+
+	public int enemyHP(int j) {
+		return enemies[j * TraceWriter.ENEMY_INTS + 1];
+	}
+
+	public int enemyX(int j) {
+		return enemies[j * TraceWriter.ENEMY_INTS + 2];
+	}
+
+	public int enemyY(int j) {
+		return enemies[j * TraceWriter.ENEMY_INTS + 3];
+	}
+}
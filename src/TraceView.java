@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Presents the current step record of a TraceReader as a CombatView, so a
+ * recorded game can be fed back through the agent without the engine.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class TraceView implements CombatView {
+
+	private final List<List<Integer>> unitIds = new ArrayList<List<Integer>>();
+	private boolean[] alive = new boolean[0];
+	private int[] hp = new int[0];
+	private int[] x = new int[0];
+	private int[] y = new int[0];
+
+	public TraceView() {
+		unitIds.add(new ArrayList<Integer>());
+		unitIds.add(new ArrayList<Integer>());
+	}
+
+	/**
+	 * replaces the units with those of the step record the reader is on
+	 */
+	public void load(TraceReader reader) {
+		for(List<Integer> ids : unitIds) {
+			for(int id : ids) {
+				alive[id] = false;
+			}
+			ids.clear();
+		}
+		for(int i = 0; i < reader.getNumFootmen(); i++) {
+			put(0, reader.footmanId(i), reader.footmanHP(i), reader.footmanX(i), reader.footmanY(i));
+		}
+		for(int j = 0; j < reader.getNumEnemies(); j++) {
+			put(1, reader.enemyId(j), reader.enemyHP(j), reader.enemyX(j), reader.enemyY(j));
+		}
+	}
+
+	private void put(int player, int id, int unitHP, int unitX, int unitY) {
+		if(id >= alive.length) {
+			int length = Math.max(id + 1, alive.length * 2);
+			alive = Arrays.copyOf(alive, length);
+			hp = Arrays.copyOf(hp, length);
+			x = Arrays.copyOf(x, length);
+			y = Arrays.copyOf(y, length);
+		}
+		alive[id] = true;
+		hp[id] = unitHP;
+		x[id] = unitX;
+		y[id] = unitY;
+		unitIds.get(player).add(id);
+	}
+
+	@Override
+	public List<Integer> getUnitIds(int player) {
+		return unitIds.get(player);
+	}
+
+	@Override
+	public boolean isAlive(int unitId) {
+		return unitId >= 0 && unitId < alive.length && alive[unitId];
+	}
+
+	@Override
+	public int getHP(int unitId) {
+		return hp[unitId];
+	}
+
+	@Override
+	public int getXPosition(int unitId) {
+		return x[unitId];
+	}
+
+	@Override
+	public int getYPosition(int unitId) {
+		return y[unitId];
+	}
+}
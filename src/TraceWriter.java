@@ -0,0 +1,165 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends what the agent saw and did to a memory mapped episode trace.  Only
+ * the steps where the agent reacted to an event are recorded, those are the
+ * only ones that change what it learns or does.  The layout is, in big
+ * endian order:
+ *
+ * <pre>
+ * int    magic ('RLTR')
+ * int    format version
+ * int    offset just past the last complete record
+ * then records, each starting with a type byte:
+ * EPISODE  int episode number
+ * STEP     int step, double reward of the step, int footmen, int enemies,
+ *          footmen * (int id, hp, x, y, target), enemies * (int id, hp, x, y)
+ * END      double cumulative reward of the episode
+ * </pre>
+ *
+ * The file grows a chunk at a time and keeps its mapped length, since a file
+ * can't be cut shorter while it is still mapped on every platform.  The
+ * header's end offset only moves past a record once all of it is written,
+ * so whatever follows it, unwritten space or a record cut short by a crash,
+ * is overwritten by the next append.  A single trace holds at most 2GB.
+ * Opening an existing trace appends to it.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class TraceWriter {
+
+	public static final int MAGIC = 0x524C5452;
+	public static final int VERSION = 2;
+	public static final int HEADER_BYTES = 12;
+	static final int END_OFFSET = 8;
+
+	public static final byte EPISODE = 1;
+	public static final byte STEP = 2;
+	public static final byte END = 3;
+
+	static final int FOOTMAN_INTS = 5;
+	static final int ENEMY_INTS = 4;
+	private static final int CHUNK_BYTES = 1 << 24;
+
+	private final RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	private int position;
+	//footmen and enemies still to be written before the current step record is complete
+	private int unitsLeft;
+
+	public TraceWriter(File file) throws IOException {
+		int end = HEADER_BYTES;
+		if(file.length() > 0) {
+			TraceReader existing = new TraceReader(file);
+			while(existing.next() != 0) {
+			}
+			end = existing.getPosition();
+		}
+		raf = new RandomAccessFile(file, "rw");
+		position = end;
+		map(0);
+		if(end == HEADER_BYTES) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(END_OFFSET, end);
+		}
+	}
+
+	/**
+	 * marks everything up to the current position as complete records
+	 */
+	private void commit() {
+		buffer.putInt(END_OFFSET, position);
+	}
+
+	/**
+	 * maps the file with room for at least the next bytes past the current position
+	 */
+	private void map(int bytes) throws IOException {
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long)position + Math.max(bytes, CHUNK_BYTES));
+		buffer.position(position);
+	}
+
+	private void ensureRoom(int bytes) {
+		if((long)position + bytes > buffer.capacity()) {
+			try {
+				map(bytes);
+			} catch(IOException e) {
+				throw new IllegalStateException("Could not grow trace", e);
+			}
+		}
+	}
+
+	public void beginEpisode(int episode) {
+		ensureRoom(5);
+		buffer.put(EPISODE);
+		buffer.putInt(episode);
+		position += 5;
+		commit();
+	}
+
+	/**
+	 * starts a step record, followed by exactly numFootmen calls to footman
+	 * and numEnemies calls to enemy
+	 */
+	public void beginStep(int step, double reward, int numFootmen, int numEnemies) {
+		int bytes = 1 + 4 + 8 + 4 + 4 + 4 * (numFootmen * FOOTMAN_INTS + numEnemies * ENEMY_INTS);
+		ensureRoom(bytes);
+		buffer.put(STEP);
+		buffer.putInt(step);
+		buffer.putDouble(reward);
+		buffer.putInt(numFootmen);
+		buffer.putInt(numEnemies);
+		position += bytes;
+		unitsLeft = numFootmen + numEnemies;
+		if(unitsLeft == 0) {
+			commit();
+		}
+	}
+
+	public void footman(int id, int hp, int x, int y, int target) {
+		buffer.putInt(id);
+		buffer.putInt(hp);
+		buffer.putInt(x);
+		buffer.putInt(y);
+		buffer.putInt(target);
+		unitWritten();
+	}
+
+	public void enemy(int id, int hp, int x, int y) {
+		buffer.putInt(id);
+		buffer.putInt(hp);
+		buffer.putInt(x);
+		buffer.putInt(y);
+		unitWritten();
+	}
+
+	private void unitWritten() {
+		if(--unitsLeft == 0) {
+			commit();
+		}
+	}
+
+	public void endEpisode(double reward) {
+		ensureRoom(9);
+		buffer.put(END);
+		buffer.putDouble(reward);
+		position += 9;
+		commit();
+	}
+
+	/**
+	 * flushes the mapping and closes the file, which stays at its mapped length
+	 */
+	public void close() throws IOException {
+		buffer.force();
+		buffer = null;
+		raf.close();
+	}
+}
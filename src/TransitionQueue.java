@@ -0,0 +1,105 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock free queue of transitions from one producer thread to one
+ * consumer thread.  The transitions are stored in a ReplayBuffer used as a
+ * ring, the producer only advances the head and the consumer only advances
+ * the tail, so neither ever waits for the other.  When the queue is full new
+ * transitions are dropped rather than blocking the producer.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class TransitionQueue {
+
+	private final int capacity;
+	private final ReplayBuffer slots;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long dropped;
+
+	/**
+	 * 
+	 * @param capacity - number of transitions that can be waiting
+	 * @param numFeatures - length of a feature vector
+	 * @param maxCandidates - candidate targets kept per transition, the greedy one is always kept
+	 */
+	public TransitionQueue(int capacity, int numFeatures, int maxCandidates) {
+		this.capacity = capacity;
+		slots = new ReplayBuffer(capacity, numFeatures, maxCandidates);
+	}
+
+	/**
+	 * adds a transition, only called by the producer
+	 * @return false if the queue was full and the transition was dropped
+	 */
+	public boolean offer(double[] previous, double reward, double[] candidates, int numCandidates, int best) {
+		long next = head.get();
+		if(next - tail.get() >= capacity) {
+			dropped++;
+			return false;
+		}
+		//the ring writes slot next % capacity, the same one read below
+		slots.add(previous, reward, candidates, numCandidates, best);
+		head.lazySet(next + 1);
+		return true;
+	}
+
+	/**
+	 * 
+	 * @return true if there is no transition waiting, only called by the consumer
+	 */
+	public boolean isEmpty() {
+		return tail.get() == head.get();
+	}
+
+	/**
+	 * copies the oldest waiting transition without removing it, only called by the consumer
+	 * @return the number of candidates copied
+	 */
+	public int peek(double[] previous, double[] candidates) {
+		return slots.read((int)(tail.get() % capacity), previous, candidates);
+	}
+
+	/**
+	 * 
+	 * @return the reward of the oldest waiting transition
+	 */
+	public double peekReward() {
+		return slots.getReward((int)(tail.get() % capacity));
+	}
+
+	/**
+	 * frees the slot of the oldest waiting transition
+	 */
+	public void remove() {
+		tail.lazySet(tail.get() + 1);
+	}
+
+	/**
+	 * 
+	 * @return the position after the newest transition, only called by the producer
+	 */
+	public long getHead() {
+		return head.get();
+	}
+
+	/**
+	 * frees every transition before the given position, only called by the consumer
+	 * @param position - a position returned by {@link #getHead}
+	 */
+	public void removeTo(long position) {
+		if(position > tail.get()) {
+			tail.lazySet(position);
+		}
+	}
+
+	/**
+	 * 
+	 * @return the number of transitions dropped because the queue was full
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+}
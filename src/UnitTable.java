@@ -0,0 +1,189 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Dense, index-based storage for the units of one side of the battle.
+ * Every unit gets a slot when it is added; its attributes live in parallel
+ * primitive arrays indexed by that slot.  Slots are never reused, a unit that
+ * dies is simply cleared from the live set.
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class UnitTable {
+
+	public static final int NONE = -1;
+
+	private int[] ids;
+	private int[] hp;
+	private int[] x;
+	private int[] y;
+	private int[] target;
+	private int size;
+
+	private int[] slotOf = new int[0];
+	private final BitSet live = new BitSet();
+	private final BitSet marked = new BitSet();
+
+	public UnitTable(int capacity) {
+		capacity = Math.max(capacity, 1);
+		ids = new int[capacity];
+		hp = new int[capacity];
+		x = new int[capacity];
+		y = new int[capacity];
+		target = new int[capacity];
+	}
+
+	/**
+	 * adds a unit to the table, or overwrites it if it is already present
+	 * @return the slot the unit was stored in
+	 */
+	public int add(int id, int unitHP, int xPosition, int yPosition, int targetId) {
+		int slot = slot(id);
+		if(slot == NONE) {
+			if(size == ids.length) {
+				grow();
+			}
+			slot = size++;
+			if(id >= slotOf.length) {
+				int oldLength = slotOf.length;
+				slotOf = Arrays.copyOf(slotOf, Math.max(id + 1, oldLength * 2));
+				Arrays.fill(slotOf, oldLength, slotOf.length, NONE);
+			}
+			slotOf[id] = slot;
+			ids[slot] = id;
+			live.set(slot);
+		}
+		hp[slot] = unitHP;
+		x[slot] = xPosition;
+		y[slot] = yPosition;
+		target[slot] = targetId;
+		return slot;
+	}
+
+	private void grow() {
+		int capacity = ids.length * 2;
+		ids = Arrays.copyOf(ids, capacity);
+		hp = Arrays.copyOf(hp, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		target = Arrays.copyOf(target, capacity);
+	}
+
+	/**
+	 *
+	 * @param id - ID of the unit you are concerned with.
+	 * @return the slot of the unit, or NONE if it isn't alive in this table.
+	 */
+	public int slot(int id) {
+		if(id < 0 || id >= slotOf.length) {
+			return NONE;
+		}
+		int slot = slotOf[id];
+		if(slot == NONE || ids[slot] != id || !live.get(slot)) {
+			return NONE;
+		}
+		return slot;
+	}
+
+	public boolean contains(int id) {
+		return slot(id) != NONE;
+	}
+
+	/**
+	 * Iterate the live units with
+	 * <code>for(int s = table.first(); s >= 0; s = table.next(s))</code>
+	 * @return the first live slot, or -1 if there are none.
+	 */
+	public int first() {
+		return live.nextSetBit(0);
+	}
+
+	public int next(int slot) {
+		return live.nextSetBit(slot + 1);
+	}
+
+	public int liveCount() {
+		return live.cardinality();
+	}
+
+	/**
+	 * @return one past the highest slot ever handed out
+	 */
+	public int capacity() {
+		return size;
+	}
+
+	public int id(int slot) {
+		return ids[slot];
+	}
+
+	public int hp(int slot) {
+		return hp[slot];
+	}
+
+	public int x(int slot) {
+		return x[slot];
+	}
+
+	public int y(int slot) {
+		return y[slot];
+	}
+
+	public int target(int slot) {
+		return target[slot];
+	}
+
+	public void setHP(int slot, int unitHP) {
+		hp[slot] = unitHP;
+	}
+
+	public void setLoc(int slot, int xPosition, int yPosition) {
+		x[slot] = xPosition;
+		y[slot] = yPosition;
+	}
+
+	public void setTarget(int slot, int targetId) {
+		target[slot] = targetId;
+	}
+
+	public void mark(int id) {
+		int slot = slot(id);
+		if(slot != NONE) {
+			marked.set(slot);
+		}
+	}
+
+	/**
+	 * Iterate the units waiting for removal the same way as the live ones.
+	 * @return the first marked slot, or -1 if there are none.
+	 */
+	public int firstMarked() {
+		return marked.nextSetBit(0);
+	}
+
+	public int nextMarked(int slot) {
+		return marked.nextSetBit(slot + 1);
+	}
+
+	/**
+	 * removes every unit that has been marked since the last call
+	 */
+	public void removeMarked() {
+		live.andNot(marked);
+		marked.clear();
+	}
+
+	/**
+	 * empties the table while keeping its arrays for reuse
+	 */
+	public void clear() {
+		for(int s = 0; s < size; s++) {
+			slotOf[ids[s]] = NONE;
+		}
+		live.clear();
+		marked.clear();
+		size = 0;
+	}
+}
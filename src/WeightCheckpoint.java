@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A snapshot of what the agent has learned.  The binary layout is, in big
+ * endian order:
+ *
+ * <pre>
+ * int    magic ('RLQW')
+ * int    format version
+ * int    number of features
+ * double discounting factor
+ * double learning rate
+ * double epsilon
+ * int    episodes played
+ * double weights[number of features]
+ * </pre>
+ *
+ * @author Derrick Tilsner
+ * @author Sam Fleckenstein
+ *
+ */
+public class WeightCheckpoint {
+
+	public static final int MAGIC = 0x524C5157;
+	public static final int VERSION = 1;
+	private static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 8 + 8 + 4;
+
+	private final double discountingFactor;
+	private final double learningRate;
+	private final double epsilon;
+	private final int numEpisodes;
+	private final double[] weights;
+
+	public WeightCheckpoint(double discountingFactor, double learningRate, double epsilon, int numEpisodes, double[] weights) {
+		this.discountingFactor = discountingFactor;
+		this.learningRate = learningRate;
+		this.epsilon = epsilon;
+		this.numEpisodes = numEpisodes;
+		this.weights = weights.clone();
+	}
+
+	/**
+	 * 
+	 * @param numFeatures - the number of weights
+	 * @return the number of bytes a checkpoint takes up
+	 */
+	public static int size(int numFeatures) {
+		return HEADER_BYTES + 8 * numFeatures;
+	}
+
+	public void write(ByteBuffer buffer) {
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(weights.length);
+		buffer.putDouble(discountingFactor);
+		buffer.putDouble(learningRate);
+		buffer.putDouble(epsilon);
+		buffer.putInt(numEpisodes);
+		for(double weight : weights) {
+			buffer.putDouble(weight);
+		}
+	}
+
+	public void write(OutputStream os) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size(weights.length));
+		write(buffer);
+		os.write(buffer.array());
+		os.flush();
+	}
+
+	/**
+	 * 
+	 * @param buffer - positioned at the start of a checkpoint
+	 * @param numFeatures - the number of features the caller uses
+	 * @return the checkpoint
+	 * @throws IOException if the buffer does not hold a checkpoint with numFeatures weights
+	 */
+	public static WeightCheckpoint read(ByteBuffer buffer, int numFeatures) throws IOException {
+		if(buffer.remaining() < HEADER_BYTES) {
+			throw new IOException("Checkpoint is truncated");
+		}
+		int magic = buffer.getInt();
+		if(magic != MAGIC) {
+			throw new IOException("Not a weight checkpoint");
+		}
+		int version = buffer.getInt();
+		if(version != VERSION) {
+			throw new IOException("Unsupported checkpoint version " + version);
+		}
+		int features = buffer.getInt();
+		if(features != numFeatures) {
+			throw new IOException("Checkpoint has " + features + " features, expected " + numFeatures);
+		}
+		double discountingFactor = buffer.getDouble();
+		double learningRate = buffer.getDouble();
+		double epsilon = buffer.getDouble();
+		int numEpisodes = buffer.getInt();
+		if(buffer.remaining() < 8 * features) {
+			throw new IOException("Checkpoint is truncated");
+		}
+		double[] weights = new double[features];
+		for(int i = 0; i < features; i++) {
+			weights[i] = buffer.getDouble();
+		}
+		return new WeightCheckpoint(discountingFactor, learningRate, epsilon, numEpisodes, weights);
+	}
+
+	public static WeightCheckpoint read(InputStream is, int numFeatures) throws IOException {
+		byte[] bytes = new byte[size(numFeatures)];
+		int read = 0;
+		while(read < bytes.length) {
+			int count = is.read(bytes, read, bytes.length - read);
+			if(count < 0) {
+				break;
+			}
+			read += count;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+		return read(buffer, numFeatures);
+	}
+
+	public double getDiscountingFactor() {
+		return discountingFactor;
+	}
+
+	public double getLearningRate() {
+		return learningRate;
+	}
+
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	public int getNumEpisodes() {
+		return numEpisodes;
+	}
+
+	public double[] getWeights() {
+		return weights.clone();
+	}
+}